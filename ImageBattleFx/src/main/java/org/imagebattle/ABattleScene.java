@@ -146,6 +146,7 @@ abstract class ABattleScene<T extends IMediaView> extends Scene {
     addHotKey(KeyCode.M, ignoreAction.apply(this::getFileRight));
     addHotKey(KeyCode.V, this::ignoreBoth);
     addHotKey(KeyCode.S, () -> displayNextImages(null, null)); // skip
+    addHotKey(KeyCode.BACK_SPACE, this::undoAndShowAgain);
 
     // Load the first candidates.
     displayNextImages(null, null);
@@ -162,6 +163,26 @@ abstract class ABattleScene<T extends IMediaView> extends Scene {
     displayNextImages(null, null);
   }
 
+  private void display(Pair<File, File> pair) {
+    fileLeft = pair.getKey();
+    fileRight = pair.getValue();
+
+    mediaRight.setNewFile(fileRight);
+    mediaLeft.setNewFile(fileLeft);
+
+    doAfterDisplayNext();
+  }
+
+  /**
+   * Takes back the last decision and shows its files again, for when the wrong side was clicked.
+   */
+  private void undoAndShowAgain() {
+    imageBattleFolder.undo(1).stream().findFirst().ifPresent(pair -> {
+      progressProperty.set(imageBattleFolder.getProgress());
+      display(pair);
+    });
+  }
+
   protected File getFileLeft() {
     return fileLeft;
   }
@@ -185,15 +206,7 @@ abstract class ABattleScene<T extends IMediaView> extends Scene {
     LOG.trace("progress: {}", progressProperty.get());
 
     Optional<Pair<File, File>> next = imageBattleFolder.getNextToCompare();
-    next.ifPresent(pair -> {
-      fileLeft = pair.getKey();
-      fileRight = pair.getValue();
-
-      mediaRight.setNewFile(fileRight);
-      mediaLeft.setNewFile(fileLeft);
-
-      doAfterDisplayNext();
-    });
+    next.ifPresent(this::display);
 
     if (!next.isPresent()) {
       switchSceneAction.run();
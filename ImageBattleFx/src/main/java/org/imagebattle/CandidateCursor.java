@@ -0,0 +1,90 @@
+package org.imagebattle;
+
+import java.io.File;
+
+/**
+ * Walks over all pairs of vertices of a {@link TransitiveDiGraph} that have not been compared yet.
+ * No object is created per pair, the cursor only moves over the bits of the
+ * {@link ReachabilityMatrix} that are neither set in the wins nor in the losses row.
+ *
+ * <pre>
+ * CandidateCursor cursor = graph.getCandidateCursor();
+ * while (cursor.next()) {
+ *   File first = cursor.first();
+ *   File second = cursor.second();
+ * }
+ * </pre>
+ *
+ * Every pair is visited once, (a,b) and (b,a) are the same pair. The graph must not be changed
+ * while a cursor is used.
+ *
+ * @author KoaGex
+ *
+ */
+public final class CandidateCursor {
+
+  private final ReachabilityMatrix matrix;
+
+  /**
+   * Ids of the vertices that take part. Only pairs of two members are visited.
+   */
+  private final long[] members;
+
+  private int first = -1;
+  private int second = -1;
+  private int wordIndex;
+
+  /**
+   * Not yet visited partners of {@link #first} within the word at {@link #wordIndex}.
+   */
+  private long word;
+
+  private boolean done = false;
+
+  CandidateCursor(ReachabilityMatrix matrix, long[] members) {
+    this.matrix = matrix;
+    this.members = members;
+  }
+
+  /**
+   * Moves to the next pair.
+   *
+   * @return false if there are no more pairs.
+   */
+  public boolean next() {
+    if (done) {
+      return false;
+    }
+    while (word == 0) {
+      if (first >= 0 && wordIndex + 1 < members.length) {
+        wordIndex++;
+        word = missingWord(first, wordIndex);
+      } else {
+        first = ReachabilityMatrix.nextSetBit(members, first + 1);
+        if (first < 0) {
+          done = true;
+          return false;
+        }
+        // only partners with a bigger id, otherwise (b,a) would follow (a,b)
+        wordIndex = first >>> 6;
+        word = missingWord(first, wordIndex) & ((-1L << first) << 1);
+      }
+    }
+    second = (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+    word &= word - 1;
+    return true;
+  }
+
+  public File first() {
+    return matrix.file(first);
+  }
+
+  public File second() {
+    return matrix.file(second);
+  }
+
+  private long missingWord(int vertex, int index) {
+    return members[index] & ~matrix.winRow(vertex)[index] & ~matrix.lossRow(vertex)[index];
+  }
+
+}
@@ -6,6 +6,7 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -32,13 +33,76 @@ public class CentralStorage {
 
   public static final String SQLITE_FILE = "mediaBattleDatabase.sqlite";
 
+  /**
+   * Decisions within this time are committed together.
+   */
+  public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 200;
+
+  /**
+   * Writes that may wait for the disk before new ones have to wait too.
+   */
+  public static final int DEFAULT_WRITE_BACKLOG = 10_000;
+
+  private final SqliteDatabase dataSource;
+
   private final Database database;
 
+  /**
+   * {@link GraphSnapshot}s of the folders are stored here.
+   */
+  private final File snapshotDirectory;
+
+  private final WriteBehindQueue writeBehind;
+
+  private final Thread flushOnShutdown;
+
   /**
    * Constructor
    */
   public CentralStorage(String sqliteFileName) {
-    database = new Database(new SqliteDatabase(getFile(sqliteFileName)));
+    this(sqliteFileName, SqlitePragmas.DEFAULT);
+  }
+
+  /**
+   * @param pragmas
+   *          Connection settings, for example to turn off write ahead logging on file systems that
+   *          do not support shared memory.
+   */
+  public CentralStorage(String sqliteFileName, SqlitePragmas pragmas) {
+    this(sqliteFileName, pragmas, DEFAULT_FLUSH_INTERVAL_MILLIS, DEFAULT_WRITE_BACKLOG);
+  }
+
+  /**
+   * @param flushIntervalMillis
+   *          How long {@link #writeBehind(Runnable)} collects writes before committing them.
+   * @param writeBacklog
+   *          How many writes may wait. When there are more, the writing thread waits.
+   */
+  public CentralStorage(String sqliteFileName, SqlitePragmas pragmas, long flushIntervalMillis,
+      int writeBacklog) {
+    File sqliteFile = getFile(sqliteFileName);
+    dataSource = new SqliteDatabase(sqliteFile, pragmas);
+    database = new Database(dataSource);
+    snapshotDirectory = new File(sqliteFile.getPath() + ".snapshots");
+    writeBehind = new WriteBehindQueue("write behind " + sqliteFileName, flushIntervalMillis,
+        writeBacklog, database::inTransaction);
+    flushOnShutdown = new Thread(writeBehind::flush);
+    Runtime.getRuntime().addShutdownHook(flushOnShutdown);
+  }
+
+  /**
+   * Runs the write later on the writer thread. Reads of this class wait for it, so they always see
+   * their own writes.
+   */
+  void writeBehind(Runnable write) {
+    writeBehind.submit(write);
+  }
+
+  /**
+   * Waits until everything from {@link #writeBehind(Runnable)} is committed.
+   */
+  void flush() {
+    writeBehind.flush();
   }
 
   TransitiveDiGraph readGraph(//
@@ -46,10 +110,10 @@ public class CentralStorage {
       Predicate<? super File> matchesFileRegex, //
       Boolean recursive//
   ) {
-
+    flush();
     TransitiveDiGraph graph = database.queryEdges(chosenDirectory, matchesFileRegex, recursive);
     log.info("database graph node count: {}    edge count: {}", graph.vertexSet().size(),
-        graph.edgeSet().size());
+        graph.getCurrentEdgeCount());
 
     return graph;
   }
@@ -58,13 +122,80 @@ public class CentralStorage {
    * @return The whole graph with all saved edges. It does not save files without edges.
    */
   TransitiveDiGraph readGraph() {
+    flush();
     return database.queryEdges();
   }
 
+  /**
+   * @return Changes whenever something is written that can change the result of
+   *         {@link #readGraph(File, Predicate, Boolean)}.
+   */
+  long revision() {
+    flush();
+    return database.revision();
+  }
+
+  /**
+   * @return Changes whenever something is written that can change the result of
+   *         {@link #readGraph(File, Predicate, Boolean)} for this directory.
+   */
+  long revision(File directory, boolean recursive) {
+    flush();
+    return database.revision(directory, recursive);
+  }
+
+  /**
+   * @param folderKey
+   *          Identifies the folder. The snapshot must have been written with the same key.
+   * @return The graph of {@link #writeSnapshot(String, long, TransitiveDiGraph)} if the revision
+   *         still matches.
+   */
+  Optional<TransitiveDiGraph> readSnapshot(String folderKey, long revision) {
+    return GraphSnapshot.read(snapshotFile(folderKey), folderKey, database.databaseId(), revision);
+  }
+
+  /**
+   * @param revision
+   *          The {@link #revision(File, boolean)} of the folder the graph represents.
+   */
+  void writeSnapshot(String folderKey, long revision, TransitiveDiGraph graph) {
+    GraphSnapshot.write(snapshotFile(folderKey), folderKey, database.databaseId(), revision, graph);
+  }
+
+  private File snapshotFile(String folderKey) {
+    // collisions are detected by the key stored in the file
+    return new File(snapshotDirectory, Integer.toHexString(folderKey.hashCode()) + ".graph");
+  }
+
+  /**
+   * @param newEdges
+   *          Pairs of winner and loser. They are inserted in one transaction.
+   */
   void addEdges(List<Pair<File, File>> newEdges) {
-    for (Pair<File, File> pair : newEdges) {
-      database.addEdge(pair.getKey(), pair.getValue());
+    database.addEdges(newEdges);
+  }
+
+  /**
+   * @param edges
+   *          Pairs of winner and loser. They are deleted in one transaction.
+   */
+  void removeEdges(List<Pair<File, File>> edges) {
+    database.removeEdges(edges);
+  }
+
+  /**
+   * Commits the pending writes and releases the database connection that is kept open for writing
+   * and the pooled readers.
+   */
+  void close() {
+    writeBehind.close();
+    try {
+      Runtime.getRuntime().removeShutdownHook(flushOnShutdown);
+    } catch (IllegalStateException e) {
+      // already shutting down
     }
+    database.close();
+    dataSource.close();
   }
 
   void addEdges(TransitiveDiGraph graph) {
@@ -78,11 +209,22 @@ public class CentralStorage {
    * @return
    */
   Set<File> readIgnoreFile(File chosenDirectory, MediaType mediaType, Boolean recursive) {
-
+    flush();
     return database.queryIgnored(chosenDirectory, mediaType, recursive);
   }
 
+  /**
+   * @return One page of the ranking of a folder, computed by the database instead of a graph in
+   *         memory.
+   */
+  List<ResultListEntry> readRanking(File chosenDirectory, MediaType mediaType, boolean recursive,
+      int limit, int offset) {
+    flush();
+    return database.queryRanking(chosenDirectory, mediaType, recursive, limit, offset);
+  }
+
   Set<File> readIgnoreFile() {
+    flush();
     return database.queryIgnored();
   }
 
@@ -152,6 +294,24 @@ public class CentralStorage {
     database.registerFiles(files);
   }
 
+  void registerFiles(Collection<File> files, RegistrationProgress progress) {
+    database.registerFiles(files, progress);
+  }
+
+  /**
+   * Reads the ids of all known files below the directory at once instead of one by one.
+   */
+  void preloadMediaIds(File directory) {
+    database.preloadMediaIds(directory);
+  }
+
+  /**
+   * Keeps edges and ignore state of a file whose path changed.
+   */
+  void moveFile(File from, File to) {
+    database.moveFile(from, to);
+  }
+
   List<ImageBattleFolder> folders() {
     return database.queryFolders(this);
   }
@@ -0,0 +1,23 @@
+package org.imagebattle;
+
+/**
+ * What {@link TransitiveDiGraph#addEdgesTransitive(java.io.File, java.io.File, ConflictPolicy)}
+ * does when the loser already won against the winner, directly or through other files.
+ *
+ * @author KoaGex
+ *
+ */
+public enum ConflictPolicy {
+
+  /**
+   * Keep the graph as it is and throw an {@link EdgeConflictException} that shows the path.
+   */
+  REJECT,
+
+  /**
+   * The new decision wins: every edge of a path from the loser to the winner is removed before the
+   * new edge is added.
+   */
+  KEEP_NEWEST;
+
+}
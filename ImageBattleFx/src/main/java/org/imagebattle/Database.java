@@ -2,20 +2,28 @@ package org.imagebattle;
 
 import java.io.File;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.function.BiConsumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import javafx.util.Pair;
 import javax.sql.DataSource;
@@ -35,8 +43,69 @@ final class Database {
   private static final String FILES = "files";
   private static final String MEDIA_OBJECTS = "media_objects";
   private static final String EDGES = "edges";
+  private static final String REVISION = "revision";
+  private static final String DIRECTORY_REVISIONS = "directory_revisions";
+
+  /**
+   * Condition for {@link #queryEdges(String, List, Predicate)} that selects every file.
+   */
+  private static final String ALL_FILES = "1 = 1";
+
+  /**
+   * Enough for the files of several big folders. One entry needs roughly 200 bytes.
+   */
+  private static final int CACHE_CAPACITY = 200_000;
+
+  /**
+   * Parameters of one lookup by many paths or hashes. Sqlite allows at most 999.
+   */
+  private static final int LOOKUP_CHUNK = 500;
+
+  /**
+   * Columns of a {@link StoredFile}, the condition has to be appended.
+   */
+  private static final String STORED_FILES = "select absolute_path, media_object, size,"
+      + " modified, file_key from " + FILES + " where ";
+
+  /**
+   * Columns of a fingerprint and its {@link MediaObject}, the condition has to be appended.
+   */
+  private static final String FINGERPRINTED = "select quick_hash, id, hash, media_type from "
+      + MEDIA_OBJECTS + " where ";
+
+  /**
+   * Hashed files are written in transactions of this size.
+   */
+  private static final int REGISTER_BATCH = 1000;
+
   private final DataSource dataSource;
 
+  /**
+   * Used for all writes and frequent lookups. It is opened on first use and kept open so each
+   * statement is only prepared once. Access is synchronized on this database.
+   */
+  private Connection connection;
+
+  private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+  /**
+   * True while {@link #inTransaction(Runnable)} runs. The batches then leave committing to it.
+   */
+  private boolean inTransaction = false;
+
+  /**
+   * Absolute path to media object id. Mirrors the files table, so every write to it must update
+   * this cache too.
+   */
+  private final LruCache<String, Integer> pathIds = new LruCache<>(CACHE_CAPACITY);
+
+  /**
+   * Hash to media object id. Media objects are never deleted or changed, so entries stay valid.
+   */
+  private final LruCache<String, Integer> hashIds = new LruCache<>(CACHE_CAPACITY);
+
+  private final HashingService hashing = HashingService.shared();
+
   /**
    * Constructor.
    * 
@@ -61,143 +130,200 @@ final class Database {
     createIfMissing.accept(IGNORED, this::createIgnoredTable);
     createIfMissing.accept(EDGES, this::createEdgesTable);
     createIfMissing.accept("folders", this::createFoldersTable);
+    createIfMissing.accept(REVISION, this::createRevisionTable);
+    SchemaMigrations.migrate(dataSource);
+    // after the migrations because rebuilding a table drops its triggers
+    createRevisionTriggers();
 
   }
 
   protected void addEdge(final File winner, final File loser) {
-    final int winnerId = mediaId(winner);
-    final int loserId = mediaId(loser);
+    addEdges(Collections.singletonList(new Pair<>(winner, loser)));
+  }
 
-    if (winnerId == loserId) {
-      throw new IllegalArgumentException(
-          "These files have the same content. An edge between them is forbidden: " + winner + " ,  "
-              + loser);
+  /**
+   * Inserts the edges in one transaction. This way a decision with thousands of implied edges only
+   * waits for one commit.
+   * 
+   * @param edges
+   *          Pairs of winner and loser.
+   */
+  void addEdges(final List<Pair<File, File>> edges) {
+    final List<int[]> ids = mediaIds(edges);
+    for (int i = 0; i < ids.size(); i++) {
+      if (ids.get(i)[0] == ids.get(i)[1]) {
+        final Pair<File, File> edge = edges.get(i);
+        throw new IllegalArgumentException(
+            "These files have the same content. An edge between them is forbidden: "
+                + edge.getKey() + " ,  " + edge.getValue());
+      }
     }
 
-    final String insert = "insert into " + EDGES + " values (" + winnerId + "," + loserId + ")";
-    executeSql(insert);
+    final String insert = "insert or ignore into " + EDGES + " values (?, ?)";
+    executeBatch(insert, ids, (statement, pair) -> {
+      statement.setInt(1, pair[0]);
+      statement.setInt(2, pair[1]);
+    });
+  }
+
+  /**
+   * @return Media ids of winner and loser of each edge.
+   */
+  private List<int[]> mediaIds(final List<Pair<File, File>> edges) {
+    return edges.stream()//
+        .map(pair -> new int[] { mediaId(pair.getKey()), mediaId(pair.getValue()) })//
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Deletes the edges in one transaction.
+   * 
+   * @param edges
+   *          Pairs of winner and loser.
+   */
+  void removeEdges(final List<Pair<File, File>> edges) {
+    final String delete = "delete from " + EDGES + " where winner = ? and loser = ?";
+    executeBatch(delete, mediaIds(edges), (statement, pair) -> {
+      statement.setInt(1, pair[0]);
+      statement.setInt(2, pair[1]);
+    });
   }
 
   protected void removeFromEdges(final File file) {
     final int id = mediaId(file);
 
-    final String delete = "delete from " + EDGES + " where winner =  " + id + " or loser = " + id;
-    executeSql(delete);
+    final String delete = "delete from " + EDGES + " where winner = ? or loser = ?";
+    executeBatch(delete, Collections.singletonList(id), (statement, mediaId) -> {
+      statement.setInt(1, mediaId);
+      statement.setInt(2, mediaId);
+    });
   }
 
+  /**
+   * @return All existing files that have edges. Of files with the same content only one is
+   *         included.
+   */
   TransitiveDiGraph queryEdges() {
-    LOG.debug("start");
-
-    final String query = "select f_win.absolute_path, f_los.absolute_path " + //
-        " from " + EDGES + " e " + //
-        " join  " + MEDIA_OBJECTS + " m_win" + //
-        " on m_win.id = e.winner " + //
-        " join " + FILES + " f_win " + //
-        " on f_win.media_object = m_win.id " + //
-        " join  " + MEDIA_OBJECTS + " m_los" + //
-        " on m_los.id = e.loser " + //
-        " join " + FILES + " f_los " + //
-        " on f_los.media_object = m_los.id " //
-    ;
-
-    final RowMapper<Pair<String, String>> rowMapper = resultSet -> new Pair<String, String>(
-        resultSet.getString(1), resultSet.getString(2));
-    final List<Pair<String, String>> filesPaths = query(query, rowMapper);
-    LOG.debug(filesPaths.size());
-
-    final TransitiveDiGraph result = new TransitiveDiGraph();
-    result.addNormalEdges(filesPaths);
-    LOG.debug("finished building graph");
-
-    return result;
+    return queryEdges(ALL_FILES, Collections.emptyList(), File::exists);
   }
 
+  /**
+   * Of files with the same content the oldest one the predicate accepts becomes the vertex. Pass
+   * the scanned files, so a deleted copy does not hide an existing one.
+   */
   TransitiveDiGraph queryEdges(//
       final File chosenDirectory, //
       final Predicate<? super File> matchesFileRegex, //
       final Boolean recursive //
   ) {
+    return queryEdges(inDirectory(FILES, recursive),
+        directoryParameters(chosenDirectory, recursive), matchesFileRegex);
+  }
+
+  /**
+   * Streams the rows into a {@link TransitiveDiGraph} without collecting them first. Each vertex
+   * row creates one {@link File}, each edge row only two ints.
+   * 
+   * @param filesCondition
+   *          Selects the rows of the files table that become vertices.
+   * @param matchesFileRegex
+   *          Only accepted files become vertices. Of files with the same content the oldest
+   *          accepted one represents them, so it should reject files that no longer exist.
+   */
+  private TransitiveDiGraph queryEdges(final String filesCondition,
+      final List<String> parameters, final Predicate<? super File> matchesFileRegex) {
     LOG.debug("start");
 
     /*
      * Regex can not be used in sqlite by default:
      * http://stackoverflow.com/questions/5071601/how-do-i-use-regex-in-a-sqlite-query#8338515
      */
+    final String edgeFiles = "(select media_object from " + FILES + " where " + filesCondition
+        + ")";
+    // oldest first, so the oldest accepted duplicate represents the content
+    final String filesQuery = "select media_object, absolute_path from " + FILES + " where "
+        + filesCondition + " and media_object in (select winner from " + EDGES
+        + " union select loser from " + EDGES + ") order by rowid";
+    final String edgesQuery = "select winner, loser from " + EDGES + //
+        " where winner in " + edgeFiles + //
+        " and loser in " + edgeFiles + //
+        " order by rowid";
+
+    final EdgeLoader loader = new EdgeLoader();
+    forEachRow(filesQuery, parameters, resultSet -> {
+      final File file = new File(resultSet.getString(2));
+      if (matchesFileRegex.test(file)) {
+        loader.addVertex(resultSet.getInt(1), file);
+      }
+    });
+    LOG.info("vertices: {}, duplicate files: {}", loader.vertices.size(), loader.duplicates);
 
-    final String query = "select f_win.absolute_path, f_los.absolute_path " + //
-        " from " + EDGES + " e " + //
-        " join  " + MEDIA_OBJECTS + " m_win" + //
-        " on m_win.id = e.winner " + //
-        " join " + FILES + " f_win " + //
-        " on f_win.media_object = m_win.id " + //
-        " join  " + MEDIA_OBJECTS + " m_los" + //
-        " on m_los.id = e.loser " + //
-        " join " + FILES + " f_los " + //
-        " on f_los.media_object = m_los.id " + //
-        " where f_win.absolute_path like '" + chosenDirectory.getAbsolutePath() + "%'"//
-    ;
+    final List<String> edgeParameters = new ArrayList<>(parameters);
+    edgeParameters.addAll(parameters);
+    forEachRow(edgesQuery, edgeParameters,
+        resultSet -> loader.addEdge(resultSet.getInt(1), resultSet.getInt(2)));
+    LOG.info("edges: {}", loader.edgeCount / 2);
 
-    final RowMapper<Pair<String, String>> rowMapper = resultSet -> new Pair<String, String>(
-        resultSet.getString(1), //
-        resultSet.getString(2)//
-    );
-    final List<Pair<String, String>> filesPaths = query(query, rowMapper);
-    LOG.debug("query finished");
+    final TransitiveDiGraph result = new TransitiveDiGraph();
+    final List<Pair<File, File>> dropped = result.addEdgesBulk(loader.vertices,
+        Arrays.copyOf(loader.edges, loader.edgeCount));
+    LOG.debug("finished building graph");
+    if (!dropped.isEmpty()) {
+      LOG.warn("{} stored edges contradict newer ones: {}", dropped.size(), dropped);
+    }
 
-    final Predicate<File> containedRecursively = file -> {
-      return file.getAbsolutePath().startsWith(chosenDirectory.getAbsolutePath());
-    };
-    final Predicate<File> containedDirectly = file -> {
-      final List<File> directorFiles = Arrays.asList(chosenDirectory.listFiles());
-      return directorFiles.contains(file);
-    };
-    final Predicate<File> matchesChosenDirectory = recursive ? containedRecursively
-        : containedDirectly;
-
-    final Predicate<File> acceptFile = matchesChosenDirectory.and(matchesFileRegex)
-        .and(File::exists);
-
-    final List<Pair<String, String>> matchingPairs = filesPaths.stream()//
-        .filter(pair -> {
-          final File winner = new File(pair.getKey());
-          final File loser = new File(pair.getValue());
-          return acceptFile.test(winner) && acceptFile.test(loser);
-        })//
-        .collect(Collectors.toList());
+    return result;
+  }
 
-    LOG.info("finished matching pairs. count: {}", matchingPairs.size());
+  /**
+   * Collects vertices and edges in the form {@link TransitiveDiGraph#addEdgesBulk(List, int[])}
+   * takes them.
+   */
+  private static final class EdgeLoader {
+    private final List<File> vertices = new ArrayList<>();
 
-    final Set<File> duplicateFiles = Stream
-        .concat(matchingPairs.stream().map(pair -> pair.getKey()),
+    /**
+     * Vertex index by media object id, -1 for media objects that are not part of the graph.
+     */
+    private int[] indexOfMediaId = new int[0];
 
-            // TODO why are we calculating file hashes of image files when audio battle was started?
-            matchingPairs.stream().map(pair -> pair.getKey()))//
-        .distinct()//
-        .map(File::new)//
-        .filter(File::isFile)//
-        .collect(Collectors.groupingBy(file -> new FileContentHash(file).hash()))//
-        .entrySet()//
-        .stream()//
-        .map(Entry::getValue)//
-        .flatMap(list -> list.stream().skip(1))//
-        .collect(Collectors.toSet());
+    private int[] edges = new int[1024];
+    private int edgeCount = 0;
+    private int duplicates = 0;
 
-    LOG.info("duplicate files {}", duplicateFiles);
+    /**
+     * Files with the same content have the same media object. Only the first of them is used.
+     */
+    void addVertex(final int mediaId, final File file) {
+      if (mediaId >= indexOfMediaId.length) {
+        final int oldLength = indexOfMediaId.length;
+        indexOfMediaId = Arrays.copyOf(indexOfMediaId, Math.max(mediaId + 1, oldLength * 2));
+        Arrays.fill(indexOfMediaId, oldLength, indexOfMediaId.length, -1);
+      }
+      if (indexOfMediaId[mediaId] >= 0) {
+        duplicates++;
+        return;
+      }
+      indexOfMediaId[mediaId] = vertices.size();
+      vertices.add(file);
+    }
 
-    final TransitiveDiGraph result = new TransitiveDiGraph();
-    for (Pair<String, String> pair : matchingPairs) {
-      final String winnerString = pair.getKey();
-      final String loserString = pair.getValue();
-      final File winner = new File(winnerString);
-      final File loser = new File(loserString);
-      if (!duplicateFiles.contains(winner) && !duplicateFiles.contains(loser)) {
-        result.addVertex(winner);
-        result.addVertex(loser);
-        result.addEdge(winner, loser);
+    void addEdge(final int winnerId, final int loserId) {
+      final int winner = index(winnerId);
+      final int loser = index(loserId);
+      if (winner < 0 || loser < 0) {
+        return;
+      }
+      if (edgeCount + 2 > edges.length) {
+        edges = Arrays.copyOf(edges, edges.length * 2);
       }
+      edges[edgeCount++] = winner;
+      edges[edgeCount++] = loser;
     }
 
-    return result;
+    private int index(final int mediaId) {
+      return mediaId < indexOfMediaId.length ? indexOfMediaId[mediaId] : -1;
+    }
   }
 
   /**
@@ -207,8 +333,10 @@ final class Database {
 
     final int id = mediaId(file);
 
-    final String insert = "insert into " + IGNORED + " values (" + id + ")";
-    executeSql(insert);
+    final String insert = "insert or ignore into " + IGNORED + " values (?)";
+    executeBatch(insert, Collections.singletonList(id), (statement, mediaId) -> {
+      statement.setInt(1, mediaId);
+    });
   }
 
   private int mediaId(File file) {
@@ -217,19 +345,13 @@ final class Database {
     int id;
     if (lookupIdByFile.isPresent()) {
       id = lookupIdByFile.get();
+    } else if (withoutRenamedFiles(Collections.singletonList(file)).isEmpty()) {
+      id = lookupFile(file).orElseThrow(() -> new IllegalStateException("missing " + file));
     } else {
 
-      final String hash = new FileContentHash(file).hash();
-      final Optional<Integer> lookupMediaItemId = lookupMediaItemId(hash);
-
-      if (lookupMediaItemId.isPresent()) {
-        id = lookupMediaItemId.get();
-      } else {
-        addMediaObject(hash, detectMediaType(file));
-        id = lookupMediaItemId(hash).orElseThrow(RuntimeException::new);
-      }
-
-      addFile(id, file);
+      final String fingerprint = hashing.quickHash(file).join();
+      addFingerprintedFiles(Collections.singletonList(new Pair<>(file, fingerprint)));
+      id = lookupFile(file).orElseThrow(() -> new IllegalStateException("missing " + file));
     }
     return id;
   }
@@ -239,8 +361,10 @@ final class Database {
    */
   void removeFromIgnore(File file) {
     final int id = mediaId(file);
-    final String delete = "delete from " + IGNORED + " where  media_object = " + id;
-    executeSql(delete);
+    final String delete = "delete from " + IGNORED + " where media_object = ?";
+    executeBatch(delete, Collections.singletonList(id), (statement, mediaId) -> {
+      statement.setInt(1, mediaId);
+    });
   }
 
   /**
@@ -249,54 +373,139 @@ final class Database {
   Set<File> queryIgnored() {
     LOG.debug("start");
 
-    final String query = "select files.absolute_path from " + FILES + " join  " + MEDIA_OBJECTS
-        + " on " + MEDIA_OBJECTS + ".id =" + FILES + ".media_object join " + IGNORED + " on "
-        + IGNORED + ".media_object = " + MEDIA_OBJECTS + ".id";
-
-    final List<String> filesPaths = query(query, resultSet -> resultSet.getString(1));
-    LOG.debug(filesPaths.size());
+    final String query = "select " + FILES + ".media_object, " + FILES + ".absolute_path from "
+        + FILES + " join " + IGNORED + " on " + IGNORED + ".media_object = " + FILES
+        + ".media_object order by " + FILES + ".media_object, " + FILES + ".rowid";
+
+    // one existing file per media object, the oldest one that still exists
+    final Map<Integer, File> ignored = new HashMap<>();
+    forEachRow(query, Collections.emptyList(), resultSet -> {
+      final int mediaId = resultSet.getInt(1);
+      if (!ignored.containsKey(mediaId)) {
+        final File file = new File(resultSet.getString(2));
+        if (file.exists()) {
+          ignored.put(mediaId, file);
+        }
+      }
+    });
+    LOG.debug(ignored.size());
 
-    return filesPaths.stream()//
-        .map(File::new)//
-        .filter(File::exists)//
-        .collect(Collectors.groupingBy(file -> new FileContentHash(file).hash()))//
-        .entrySet()//
-        .stream()//
-        .map(Entry::getValue)//
-        .map(list -> list.get(0))//
-        .collect(Collectors.toSet());
+    return new HashSet<>(ignored.values());
   }
 
+  /**
+   * @return Ignored files in the directory. Some of them may not exist anymore.
+   */
   Set<File> queryIgnored(File chosenDirectory, MediaType mediaType, Boolean recursive) {
-    final String query = "select files.absolute_path from " + FILES + //
+    final String query = "select " + FILES + ".absolute_path from " + FILES + //
         " join  " + MEDIA_OBJECTS + //
         " on " + MEDIA_OBJECTS + ".id =" + FILES + ".media_object " + //
         " join " + IGNORED + //
         " on " + IGNORED + ".media_object = " + MEDIA_OBJECTS + ".id" + //
-        " where " + MEDIA_OBJECTS + ".media_type = '" + mediaType.name() + "'";
+        " where " + MEDIA_OBJECTS + ".media_type = ?" + //
+        " and " + inDirectory(FILES, recursive);
 
     final RowMapper<String> rowMapper = resultSet -> resultSet.getString(1);
 
-    // block copied from CentralStorage
-    final Predicate<File> containedRecursively = file -> {
-      return file.getAbsolutePath().startsWith(chosenDirectory.getAbsolutePath());
-    };
-    final Predicate<File> containedDirectly = file -> {
-      final List<File> directorFiles = Arrays.asList(chosenDirectory.listFiles());
-      return directorFiles.contains(file);
-    };
-    final Predicate<File> matchesChosenDirectory = recursive ? containedRecursively
-        : containedDirectly;
-
-    final List<String> filesPaths = query(query, rowMapper);
+    final List<String> parameters = new ArrayList<>();
+    parameters.add(mediaType.name());
+    parameters.addAll(directoryParameters(chosenDirectory, recursive));
+    final List<String> filesPaths = query(query, parameters, rowMapper);
     return filesPaths.stream()//
         .map(File::new)//
-        .filter(File::exists)//
-        .filter(matchesChosenDirectory)//
         .collect(Collectors.toSet());
 
   }
 
+  /**
+   * Ranks the files of a folder like {@link TransitiveDiGraph#getRankingList()} without loading the
+   * graph. Only edges between two files of the folder count. Of files with the same content only
+   * the first registered path is included. Ignored files are not ranked. Some of the files may not
+   * exist anymore, the database does not check the file system.
+   * 
+   * @param limit
+   *          Maximum number of entries.
+   * @param offset
+   *          Number of better ranked entries to skip.
+   * @return Best first. The place counts from the first entry of the whole ranking.
+   */
+  List<ResultListEntry> queryRanking(File chosenDirectory, MediaType mediaType,
+      boolean recursive, int limit, int offset) {
+    if (limit < 0 || offset < 0) {
+      throw new IllegalArgumentException("limit and offset must not be negative");
+    }
+    final String folderFiles = "folder_files(media_object, file_row) as ("//
+        + "select " + FILES + ".media_object, min(" + FILES + ".rowid) from " + FILES//
+        + " join " + MEDIA_OBJECTS + " on " + MEDIA_OBJECTS + ".id = " + FILES + ".media_object"//
+        + " where " + MEDIA_OBJECTS + ".media_type = ? and " + inDirectory(FILES, recursive)//
+        + " and " + FILES + ".media_object not in (select media_object from " + IGNORED + ")"//
+        + " group by " + FILES + ".media_object)";
+    final String wins = "wins(media_object, count) as ("//
+        + "select winner, count(*) from " + EDGES//
+        + " join folder_files on folder_files.media_object = " + EDGES + ".loser"//
+        + " where winner in (select media_object from folder_files) group by winner)";
+    final String loses = "loses(media_object, count) as ("//
+        + "select loser, count(*) from " + EDGES//
+        + " join folder_files on folder_files.media_object = " + EDGES + ".winner"//
+        + " where loser in (select media_object from folder_files) group by loser)";
+    final String query = "with " + folderFiles + ", " + wins + ", " + loses//
+        + " select " + FILES + ".absolute_path, ifnull(wins.count, 0), ifnull(loses.count, 0),"//
+        + " (select count(*) from folder_files)"//
+        + " from folder_files"//
+        + " join " + FILES + " on " + FILES + ".rowid = folder_files.file_row"//
+        + " left join wins on wins.media_object = folder_files.media_object"//
+        + " left join loses on loses.media_object = folder_files.media_object"//
+        + " order by ifnull(wins.count, 0) - ifnull(loses.count, 0) desc, " + FILES
+        + ".absolute_path"//
+        // ints, nothing to escape
+        + " limit " + limit + " offset " + offset;
+
+    final List<String> parameters = new ArrayList<>();
+    parameters.add(mediaType.name());
+    parameters.addAll(directoryParameters(chosenDirectory, recursive));
+
+    final List<ResultListEntry> ranking = query(query, parameters, resultSet -> {
+      final ResultListEntry entry = new ResultListEntry();
+      entry.file = new File(resultSet.getString(1));
+      entry.wins = resultSet.getInt(2);
+      entry.loses = resultSet.getInt(3);
+      entry.fixed = resultSet.getInt(4) - 1 == entry.wins + entry.loses;
+      return entry;
+    });
+    for (int i = 0; i < ranking.size(); i++) {
+      ranking.get(i).place = offset + i + 1;
+    }
+    LOG.debug("ranking entries {} to {}", offset + 1, offset + ranking.size());
+    return ranking;
+  }
+
+  /**
+   * @param table
+   *          Name or alias of the files table.
+   * @return Condition that needs the {@link #directoryParameters(File, boolean)}. Both variants can
+   *         use an index.
+   */
+  private static String inDirectory(final String table, final boolean recursive) {
+    return recursive
+        ? "(" + table + ".absolute_path >= ? and " + table + ".absolute_path < ?)"
+        : table + ".parent_directory = ?";
+  }
+
+  private static List<String> directoryParameters(final File directory, final boolean recursive) {
+    return recursive ? pathRange(directory)
+        : Collections.singletonList(directory.getAbsolutePath());
+  }
+
+  /**
+   * @return The absolute paths of all files below the directory sort between these two strings.
+   */
+  private static List<String> pathRange(final File directory) {
+    final String path = directory.getAbsolutePath();
+    final String prefix = path.endsWith(File.separator) ? path : path + File.separator;
+    return Arrays.asList(prefix,
+        prefix.substring(0, prefix.length() - 1) + (char) (File.separatorChar + 1));
+  }
+
   /**
    * @return Names of all tables in the sqlite database.
    */
@@ -356,6 +565,104 @@ final class Database {
     executeSql(createTable);
   }
 
+  /**
+   * One row: A random id of this database and a counter that {@link #createRevisionTriggers()}
+   * increase on every change that can affect a graph read by {@link #queryEdges(File, Predicate,
+   * Boolean)}.
+   */
+  private void createRevisionTable() {
+    final String createTable = " create table " + REVISION + "(" + //
+        " database_id INTEGER NOT NULL," + //
+        " counter INTEGER NOT NULL ) ";
+    executeSql(createTable);
+    executeSql("insert into " + REVISION + " values (" + new Random().nextLong() + ", 0)");
+  }
+
+  /**
+   * Triggers are used so no write method can forget to increase the revision.
+   */
+  private void createRevisionTriggers() {
+    final String[][] tableEvents = { //
+        { EDGES, "insert" }, //
+        { EDGES, "delete" }, //
+        { FILES, "insert" }, //
+        { FILES, "update" }, //
+        { FILES, "delete" } //
+    };
+    for (String[] tableEvent : tableEvents) {
+      final String table = tableEvent[0];
+      final String event = tableEvent[1];
+      final String createTrigger = "create trigger if not exists " + table + "_" + event + "_"
+          + REVISION + " after " + event + " on " + table + //
+          " begin update " + REVISION + " set counter = counter + 1; end";
+      executeSql(createTrigger);
+    }
+
+    // the directories of the files a change touches
+    final String bump = " update " + DIRECTORY_REVISIONS + " set counter = counter + 1 where ";
+    final String ofMediaObjects = "directory in (select parent_directory from " + FILES
+        + " where media_object in ";
+    final String[][] directoryTriggers = { //
+        { EDGES, "insert", bump + ofMediaObjects + "(new.winner, new.loser));" }, //
+        { EDGES, "delete", bump + ofMediaObjects + "(old.winner, old.loser));" }, //
+        { FILES, "insert", " insert or ignore into " + DIRECTORY_REVISIONS
+            + " values (new.parent_directory, 0);" + bump
+            + "directory = new.parent_directory;" }, //
+        // signature updates do not change any graph
+        { FILES, "update of media_object, absolute_path, parent_directory",
+            " insert or ignore into " + DIRECTORY_REVISIONS + " values (new.parent_directory, 0);"
+                + bump + "directory in (old.parent_directory, new.parent_directory);" }, //
+        { FILES, "delete", bump + "directory = old.parent_directory;" } //
+    };
+    for (String[] trigger : directoryTriggers) {
+      final String table = trigger[0];
+      final String event = trigger[1];
+      final String createTrigger = "create trigger if not exists " + table + "_"
+          + event.split(" ")[0] + "_" + DIRECTORY_REVISIONS + " after " + event + " on " + table
+          + " begin" + trigger[2] + " end";
+      executeSql(createTrigger);
+    }
+  }
+
+  /**
+   * @return Random number that was chosen when this database was created. It tells apart databases
+   *         that happen to have the same {@link #revision()}.
+   */
+  long databaseId() {
+    return query("select database_id from " + REVISION, resultSet -> resultSet.getLong(1)).get(0);
+  }
+
+  /**
+   * @return Increases whenever edges or files are changed.
+   */
+  long revision() {
+    final String query = "select counter from " + REVISION;
+    return queryPrepared(query, null, (statement, none) -> {
+    }, resultSet -> resultSet.getLong(1)).get(0);
+  }
+
+  /**
+   * Like {@link #revision()}, but only changes of files in the directory and of their edges count.
+   * A decision in one folder does not change the revision of another folder. It is the sum of
+   * counters that only grow, so any change increases it.
+   */
+  long revision(final File directory, final boolean recursive) {
+    final String query = "select ifnull(sum(counter), 0) from " + DIRECTORY_REVISIONS
+        + (recursive ? " where directory = ? or (directory >= ? and directory < ?)"
+            : " where directory = ?");
+    final List<String> parameters = new ArrayList<>();
+    parameters.add(directory.getAbsolutePath());
+    if (recursive) {
+      parameters.addAll(pathRange(directory));
+    }
+    // on the cached connection, so a write of the running transaction is already counted
+    return queryPrepared(query, parameters, (statement, values) -> {
+      for (int i = 0; i < values.size(); i++) {
+        statement.setString(i + 1, values.get(i));
+      }
+    }, resultSet -> resultSet.getLong(1)).get(0);
+  }
+
   /**
    * Add one item to the media_objects table. One mediaObject represents one image, musicTrack or
    * whatever else may be added.
@@ -367,9 +674,11 @@ final class Database {
    *          Currently String is allowed. This may later become an enum.
    */
   void addMediaObject(final String hash, final MediaType mediaType) {
-    final String insert = " insert into " + MEDIA_OBJECTS + "(hash,media_type) values ('" + hash
-        + "','" + mediaType.name() + "')";
-    executeSql(insert);
+    final String insert = " insert into " + MEDIA_OBJECTS + "(hash,media_type) values (?, ?)";
+    executeBatch(insert, Collections.singletonList(hash), (statement, value) -> {
+      statement.setString(1, value);
+      statement.setString(2, mediaType.name());
+    });
   }
 
   /**
@@ -377,12 +686,59 @@ final class Database {
    * @param file
    */
   void addFile(final int mediaObjectId, final File file) {
+    final String insert = "insert into " + FILES
+        + " (media_object, absolute_path, parent_directory, size, modified, file_key)"
+        + " values (?, ?, ?, ?, ?, ?)";
+    final FileSignature signature = FileSignature.of(file);
+    executeBatch(insert, Collections.singletonList(file), (statement, value) -> {
+      statement.setInt(1, mediaObjectId);
+      statement.setString(2, value.getAbsolutePath());
+      statement.setString(3, value.getAbsoluteFile().getParent());
+      statement.setLong(4, signature.size);
+      statement.setLong(5, signature.modified);
+      statement.setString(6, signature.fileKey);
+    });
+    pathIds.put(file.getAbsolutePath(), mediaObjectId);
+  }
 
-    // TODO preparedStatement? test performance
-    final String insert = "insert into " + FILES + " (media_object, absolute_path) values ("
-        + mediaObjectId + ",'" + file.getAbsolutePath().replace("'", "''") + "')";
+  /**
+   * Keeps the media object of a file that was moved or renamed. A file that was stored under the
+   * new path before is replaced.
+   */
+  void moveFile(final File from, final File to) {
+    final String update = "update or replace " + FILES + " set absolute_path = ?,"
+        + " parent_directory = ? where absolute_path = ?";
+    executeBatch(update, Collections.singletonList(from), (statement, value) -> {
+      statement.setString(1, to.getAbsolutePath());
+      statement.setString(2, to.getAbsoluteFile().getParent());
+      statement.setString(3, value.getAbsolutePath());
+    });
+    pathIds.remove(from.getAbsolutePath());
+    pathIds.remove(to.getAbsolutePath());
+  }
 
-    executeSql(insert);
+  /**
+   * Fills the caches with all files below the directory in one query. Afterwards
+   * {@link #mediaId(File)} does not need to query the database for them.
+   */
+  void preloadMediaIds(final File directory) {
+    final List<String> range = pathRange(directory);
+    final String query = "select f.absolute_path, m.id, m.hash, m.media_type" //
+        + " from " + FILES + " f join " + MEDIA_OBJECTS + " m on m.id = f.media_object" //
+        + " where f.absolute_path >= ? and f.absolute_path < ?";
+    final List<Pair<String, MediaObject>> rows = queryPrepared(query, range,
+        (statement, bounds) -> {
+          statement.setString(1, bounds.get(0));
+          statement.setString(2, bounds.get(1));
+        }, resultSet -> new Pair<>(resultSet.getString(1), new MediaObject(resultSet.getInt(2),
+            resultSet.getString(3), MediaType.valueOf(resultSet.getString(4)))));
+    for (final Pair<String, MediaObject> row : rows) {
+      pathIds.put(row.getKey(), row.getValue().id());
+      if (row.getValue().hash() != null) {
+        hashIds.put(row.getValue().hash(), row.getValue().id());
+      }
+    }
+    LOG.debug("preloaded {} files below {}", rows.size(), directory);
   }
 
   /**
@@ -390,21 +746,34 @@ final class Database {
    * @return
    */
   protected Optional<Integer> lookupFile(final File file) {
+    final String path = file.getAbsolutePath();
+    final Optional<Integer> cached = pathIds.get(path);
+    if (cached.isPresent()) {
+      return cached;
+    }
 
-    final String query = "select media_object from " + FILES + " where absolute_path = '"
-        + file.getAbsolutePath().replace("'", "''") + "'";
+    final String query = "select media_object from " + FILES + " where absolute_path = ?";
 
-    LOG.trace(query);
-    final List<Integer> files = query(query, rs -> rs.getInt(1));
-    return files.stream()//
+    LOG.trace("{} {}", query, file);
+    final List<Integer> files = queryPrepared(query, path,
+        (statement, value) -> statement.setString(1, value), rs -> rs.getInt(1));
+    final Optional<Integer> id = files.stream()//
         .findAny();
-
+    id.ifPresent(mediaId -> pathIds.put(path, mediaId));
+    return id;
   }
 
   Optional<Integer> lookupMediaItemId(String hash) {
-    final String query = "select id from " + MEDIA_OBJECTS + " where hash = '" + hash + "'";
-    final List<Integer> ids = query(query, resultSet -> resultSet.getInt(1));
-    return ids.stream().findAny();
+    final Optional<Integer> cached = hashIds.get(hash);
+    if (cached.isPresent()) {
+      return cached;
+    }
+    final String query = "select id from " + MEDIA_OBJECTS + " where hash = ?";
+    final List<Integer> ids = queryPrepared(query, hash,
+        (statement, value) -> statement.setString(1, value), resultSet -> resultSet.getInt(1));
+    final Optional<Integer> id = ids.stream().findAny();
+    id.ifPresent(mediaId -> hashIds.put(hash, mediaId));
+    return id;
   }
 
   /**
@@ -433,9 +802,408 @@ final class Database {
    *          already present.
    */
   void registerFiles(final Collection<File> files) {
+    registerFiles(files, RegistrationProgress.NONE);
+  }
+
+  /**
+   * Registers in three stages. First the paths are compared against the files table, a few hundred
+   * at a time. Then the {@link HashingService} computes the {@link FileContentHash#quickHash()} of
+   * the unknown files in parallel. The fingerprinted files are written in large batches while the
+   * others are still read. The full content is only hashed where fingerprints are shared.
+   * 
+   * @param files
+   *          for each determine hash and create it in the files and media_object table if not
+   *          already present.
+   * @param progress
+   *          Is told after the known files were found and after each fingerprinted file.
+   */
+  void registerFiles(final Collection<File> files, final RegistrationProgress progress) {
+    final List<File> distinctFiles = files.stream().distinct().collect(Collectors.toList());
+    final int total = distinctFiles.size();
+    final List<File> unknownFiles = unknownFiles(distinctFiles);
+    int registered = total - unknownFiles.size();
+    progress.update(registered, total);
+    LOG.info("{} of {} files are new or changed", unknownFiles.size(), total);
+    if (unknownFiles.isEmpty()) {
+      return;
+    }
+
+    // in the order the hashes complete, a slow file does not hold back the others
+    final BlockingQueue<Pair<File, CompletableFuture<String>>> completed =
+        new LinkedBlockingQueue<>();
+    final List<CompletableFuture<String>> hashes = new ArrayList<>(unknownFiles.size());
+    for (final File file : unknownFiles) {
+      final CompletableFuture<String> hash = hashing.quickHash(file);
+      hashes.add(hash);
+      hash.whenComplete((value, error) -> completed.add(new Pair<>(file, hash)));
+    }
+    try {
+      final List<Pair<File, String>> hashed = new ArrayList<>(REGISTER_BATCH);
+      for (int i = 0; i < unknownFiles.size(); i++) {
+        final Pair<File, CompletableFuture<String>> next = completed.take();
+        hashed.add(new Pair<>(next.getKey(), next.getValue().join()));
+        if (hashed.size() == REGISTER_BATCH || i == unknownFiles.size() - 1) {
+          addFingerprintedFiles(hashed);
+          registered += hashed.size();
+          hashed.clear();
+        }
+        progress.update(registered, total);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("registration interrupted", e);
+    } catch (CompletionException e) {
+      throw new IllegalStateException("hashing failed", e.getCause());
+    } finally {
+      // hashes that did not start yet are skipped
+      hashes.forEach(hash -> hash.cancel(false));
+    }
+  }
+
+  /**
+   * A stored file counts as unchanged when its {@link FileSignature} did not change. Only the file
+   * system metadata is read for that, not the content. Rows that were stored before a part of the
+   * signature was known get it filled in and are trusted.
+   * 
+   * @return The files whose content has to be hashed because it is not known yet or changed.
+   */
+  private List<File> unknownFiles(final List<File> files) {
+    final List<String> paths = files.stream()//
+        .map(File::getAbsolutePath)//
+        .collect(Collectors.toList());
+    final Map<String, StoredFile> storedFiles = new HashMap<>();
+    lookupChunked(STORED_FILES + "absolute_path in ", paths, StoredFile::new)//
+        .forEach(stored -> storedFiles.put(stored.path, stored));
+
+    final List<File> unknownFiles = new ArrayList<>();
+    final List<Pair<File, FileSignature>> incomplete = new ArrayList<>();
+    for (final File file : files) {
+      final StoredFile stored = storedFiles.get(file.getAbsolutePath());
+      if (stored == null) {
+        unknownFiles.add(file);
+        continue;
+      }
+      final FileSignature signature = FileSignature.of(file);
+      if (!stored.matches(signature)) {
+        LOG.info("changed since it was registered: {}", file);
+        pathIds.remove(stored.path);
+        unknownFiles.add(file);
+      } else {
+        pathIds.put(stored.path, stored.mediaId);
+        if (signature.completes(stored.size, stored.modified, stored.fileKey)) {
+          incomplete.add(new Pair<>(file, signature));
+        }
+      }
+    }
+
+    final String update = "update " + FILES
+        + " set size = ?, modified = ?, file_key = ? where absolute_path = ?";
+    executeBatch(update, incomplete, (statement, pair) -> {
+      statement.setLong(1, pair.getValue().size);
+      statement.setLong(2, pair.getValue().modified);
+      statement.setString(3, pair.getValue().fileKey);
+      statement.setString(4, pair.getKey().getAbsolutePath());
+    });
+    return withoutRenamedFiles(unknownFiles);
+  }
+
+  /**
+   * A file under a new path whose file key, size and modification time match a stored file has the
+   * same content, for example after it was renamed outside of this application. It gets the media
+   * object of the stored file without being hashed. When the stored path no longer exists, its row
+   * is moved to the new path, so no outdated path is left behind.
+   * 
+   * @return The files that still have to be hashed.
+   */
+  private List<File> withoutRenamedFiles(final List<File> files) {
+    final Map<String, Pair<File, FileSignature>> byFileKey = new HashMap<>();
     for (final File file : files) {
-      mediaId(file);
+      final FileSignature signature = FileSignature.of(file);
+      if (signature.fileKey != null) {
+        byFileKey.put(signature.fileKey, new Pair<>(file, signature));
+      }
+    }
+    if (byFileKey.isEmpty()) {
+      return files;
+    }
+
+    final Map<File, StoredFile> renamed = new HashMap<>();
+    lookupChunked(STORED_FILES + "file_key in ", new ArrayList<>(byFileKey.keySet()),
+        StoredFile::new).forEach(stored -> {
+          final Pair<File, FileSignature> candidate = byFileKey.get(stored.fileKey);
+          if (stored.size != null && stored.modified != null
+              && stored.matches(candidate.getValue())) {
+            // of several hard links the one that is gone was renamed
+            renamed.merge(candidate.getKey(), stored,
+                (first, other) -> new File(first.path).exists() ? other : first);
+          }
+        });
+    if (renamed.isEmpty()) {
+      return files;
+    }
+    LOG.info("{} files were renamed or moved", renamed.size());
+    renamed.forEach((file, stored) -> {
+      final File from = new File(stored.path);
+      if (!from.exists()) {
+        moveFile(from, file);
+      }
+    });
+    storeFiles(renamed.entrySet().stream()//
+        .map(entry -> new Pair<>(entry.getKey(), entry.getValue().mediaId))//
+        .collect(Collectors.toList()));
+    return files.stream()//
+        .filter(file -> !renamed.containsKey(file))//
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * A row of the files table.
+   */
+  private static final class StoredFile {
+    private final String path;
+    private final int mediaId;
+    private final Long size;
+    private final Long modified;
+    private final String fileKey;
+
+    StoredFile(final ResultSet resultSet) throws SQLException {
+      path = resultSet.getString(1);
+      mediaId = resultSet.getInt(2);
+      size = nullableLong(resultSet, 3);
+      modified = nullableLong(resultSet, 4);
+      fileKey = resultSet.getString(5);
+    }
+
+    boolean matches(final FileSignature signature) {
+      return signature.matches(size, modified, fileKey);
+    }
+
+    private static Long nullableLong(final ResultSet resultSet, final int column)
+        throws SQLException {
+      final long value = resultSet.getLong(column);
+      return resultSet.wasNull() ? null : value;
+    }
+  }
+
+  /**
+   * Finds or creates the media object of each file by its quick fingerprint. Only files whose
+   * fingerprint is shared, with another new file or with a stored media object, are hashed
+   * completely. Those hashes are computed in parallel and waited for before the transaction
+   * starts, so the transaction does not read any file. A file whose fingerprint was added by
+   * someone else in between is hashed in another round.
+   */
+  private void addFingerprintedFiles(final List<Pair<File, String>> fingerprintedFiles) {
+    List<Pair<File, String>> remaining = fingerprintedFiles;
+    while (!remaining.isEmpty()) {
+      remaining = addFingerprintedFilesOnce(remaining);
+    }
+  }
+
+  /**
+   * @return The files that could not be identified without hashing them.
+   */
+  private List<Pair<File, String>> addFingerprintedFilesOnce(
+      final List<Pair<File, String>> fingerprintedFiles) {
+    final Map<String, List<File>> byFingerprint = new HashMap<>();
+    fingerprintedFiles.forEach(pair -> byFingerprint
+        .computeIfAbsent(pair.getValue(), fingerprint -> new ArrayList<>())
+        .add(pair.getKey()));
+    final Map<String, List<MediaObject>> stored = new HashMap<>();
+    lookupChunked(FINGERPRINTED + "quick_hash in ", new ArrayList<>(byFingerprint.keySet()),
+        resultSet -> new Pair<>(resultSet.getString(1), mediaObject(resultSet)))//
+            .forEach(row -> stored.computeIfAbsent(row.getKey(), key -> new ArrayList<>())
+                .add(row.getValue()));
+
+    final Map<File, CompletableFuture<String>> fileHashes = new HashMap<>();
+    final Map<Integer, CompletableFuture<String>> storedHashes = new HashMap<>();
+    byFingerprint.forEach((fingerprint, files) -> {
+      final List<MediaObject> objects = stored.getOrDefault(fingerprint,
+          Collections.emptyList());
+      if (files.size() + objects.size() > 1) {
+        files.forEach(file -> fileHashes.put(file, hashing.hash(file)));
+        objects.stream()//
+            .filter(mediaObject -> mediaObject.hash() == null)//
+            .forEach(mediaObject -> storedHashes.put(mediaObject.id(),
+                existingFile(mediaObject.id()).map(hashing::hash)
+                    .orElse(CompletableFuture.completedFuture(null))));
+      }
+    });
+    LOG.info("{} of {} fingerprints are shared", fileHashes.size(), fingerprintedFiles.size());
+    final Map<File, String> hashes = new HashMap<>();
+    fileHashes.forEach((file, hash) -> hashes.put(file, hash.join()));
+    // null for media objects none of whose files exists anymore
+    final Map<Integer, String> completedHashes = new HashMap<>();
+    storedHashes.forEach((mediaId, hash) -> completedHashes.put(mediaId, hash.join()));
+
+    final List<Pair<File, Integer>> identified = new ArrayList<>(fingerprintedFiles.size());
+    final List<Pair<File, String>> unidentified = new ArrayList<>();
+    try {
+      inTransaction(() -> {
+        for (final Pair<File, String> pair : fingerprintedFiles) {
+          final File file = pair.getKey();
+          final Optional<Integer> mediaId = identify(file, pair.getValue(), hashes.get(file),
+              completedHashes);
+          if (mediaId.isPresent()) {
+            identified.add(new Pair<>(file, mediaId.get()));
+          } else {
+            unidentified.add(pair);
+          }
+        }
+        storeFiles(identified);
+      });
+    } catch (RuntimeException e) {
+      // the rolled back ids must not stay cached
+      pathIds.clear();
+      hashIds.clear();
+      throw e;
+    }
+    if (!unidentified.isEmpty()) {
+      LOG.info("{} fingerprints were added meanwhile, hashing again", unidentified.size());
+    }
+    return unidentified;
+  }
+
+  /**
+   * Runs inside a transaction, so no other thread can add a media object with the same fingerprint
+   * in between. Does not read any file.
+   * 
+   * @param hash
+   *          Null if the fingerprint was not shared when the batch was looked up.
+   * @param storedHashes
+   *          Full hashes of stored media objects that did not have one yet, null for those without
+   *          an existing file.
+   * @return Id of the media object with the content of the file. Empty if that needs a hash that
+   *         was not computed in advance.
+   */
+  private Optional<Integer> identify(final File file, final String fingerprint,
+      final String hash, final Map<Integer, String> storedHashes) {
+    final List<MediaObject> objects = queryPrepared(FINGERPRINTED + "quick_hash = ?",
+        fingerprint, (statement, value) -> statement.setString(1, value), this::mediaObject);
+    if (objects.isEmpty() && hash == null) {
+      final String insert = "insert into " + MEDIA_OBJECTS
+          + " (quick_hash, media_type) values (?, ?)";
+      executeBatch(insert, Collections.singletonList(fingerprint), (statement, value) -> {
+        statement.setString(1, value);
+        statement.setString(2, detectMediaType(file).name());
+      });
+      return Optional.of(queryPrepared("select max(id) from " + MEDIA_OBJECTS
+          + " where quick_hash = ?", fingerprint,
+          (statement, value) -> statement.setString(1, value),
+          resultSet -> resultSet.getInt(1)).get(0));
+    }
+    if (hash == null || objects.stream().anyMatch(mediaObject -> mediaObject.hash() == null
+        && !storedHashes.containsKey(mediaObject.id()))) {
+      return Optional.empty();
+    }
+
+    for (final MediaObject mediaObject : objects) {
+      final String storedHash = mediaObject.hash() == null
+          ? completeHash(mediaObject.id(), storedHashes.get(mediaObject.id()))
+          : mediaObject.hash();
+      if (hash.equals(storedHash)) {
+        return Optional.of(mediaObject.id());
+      }
     }
+    final String insert = "insert or ignore into " + MEDIA_OBJECTS
+        + " (quick_hash, hash, media_type) values (?, ?, ?)";
+    executeBatch(insert, Collections.singletonList(hash), (statement, value) -> {
+      statement.setString(1, fingerprint);
+      statement.setString(2, value);
+      statement.setString(3, detectMediaType(file).name());
+    });
+    return Optional.of(lookupMediaItemId(hash)
+        .orElseThrow(() -> new IllegalStateException("missing " + file)));
+  }
+
+  /**
+   * Stores the full hash of a media object that only had a fingerprint so far.
+   * 
+   * @param hash
+   *          Null if none of its files exists anymore.
+   * @return The hash.
+   */
+  private String completeHash(final int mediaId, final String hash) {
+    if (hash != null) {
+      // a media object that already has this hash keeps it, the unique index forbids a second one
+      final String update = "update or ignore " + MEDIA_OBJECTS + " set hash = ? where id = ?";
+      executeBatch(update, Collections.singletonList(mediaId), (statement, id) -> {
+        statement.setString(1, hash);
+        statement.setInt(2, id);
+      });
+    }
+    return hash;
+  }
+
+  /**
+   * @return The oldest file of the media object that still exists.
+   */
+  private Optional<File> existingFile(final int mediaId) {
+    final String query = "select absolute_path from " + FILES
+        + " where media_object = ? order by rowid";
+    return queryPrepared(query, mediaId, (statement, id) -> statement.setInt(1, id),
+        resultSet -> new File(resultSet.getString(1))).stream()//
+            .filter(File::isFile)//
+            .findFirst();
+  }
+
+  private MediaObject mediaObject(final ResultSet resultSet) throws SQLException {
+    return new MediaObject(resultSet.getInt(2), resultSet.getString(3),
+        MediaType.valueOf(resultSet.getString(4)));
+  }
+
+  /**
+   * Writes the media object and the {@link FileSignature} of each file. Changed files already have
+   * a row, the others are inserted.
+   */
+  private void storeFiles(final List<Pair<File, Integer>> files) {
+    final Map<File, FileSignature> signatures = new HashMap<>();
+    files.forEach(pair -> signatures.put(pair.getKey(), FileSignature.of(pair.getKey())));
+
+    final String updateFile = "update " + FILES
+        + " set media_object = ?, size = ?, modified = ?, file_key = ? where absolute_path = ?";
+    executeBatch(updateFile, files, (statement, pair) -> {
+      final FileSignature signature = signatures.get(pair.getKey());
+      statement.setInt(1, pair.getValue());
+      statement.setLong(2, signature.size);
+      statement.setLong(3, signature.modified);
+      statement.setString(4, signature.fileKey);
+      statement.setString(5, pair.getKey().getAbsolutePath());
+    });
+    final String insertFile = "insert or ignore into " + FILES
+        + " (media_object, absolute_path, parent_directory, size, modified, file_key)"
+        + " values (?, ?, ?, ?, ?, ?)";
+    executeBatch(insertFile, files, (statement, pair) -> {
+      final FileSignature signature = signatures.get(pair.getKey());
+      statement.setInt(1, pair.getValue());
+      statement.setString(2, pair.getKey().getAbsolutePath());
+      statement.setString(3, pair.getKey().getAbsoluteFile().getParent());
+      statement.setLong(4, signature.size);
+      statement.setLong(5, signature.modified);
+      statement.setString(6, signature.fileKey);
+    });
+    files.forEach(pair -> pathIds.put(pair.getKey().getAbsolutePath(), pair.getValue()));
+  }
+
+  /**
+   * @param queryStart
+   *          Ends with " in ". The keys are appended as parameters, a few hundred per query.
+   */
+  private <T> List<T> lookupChunked(final String queryStart, final List<String> keys,
+      final RowMapper<T> rowMapper) {
+    final List<T> rows = new ArrayList<>();
+    // always the same number of parameters, so only one statement has to be prepared
+    final String query = queryStart + "("
+        + String.join(",", Collections.nCopies(LOOKUP_CHUNK, "?")) + ")";
+    for (int start = 0; start < keys.size(); start += LOOKUP_CHUNK) {
+      final List<String> chunk = keys.subList(start, Math.min(keys.size(), start + LOOKUP_CHUNK));
+      rows.addAll(queryPrepared(query, chunk, (statement, values) -> {
+        for (int i = 0; i < LOOKUP_CHUNK; i++) {
+          // unused parameters repeat the first key
+          statement.setString(i + 1, values.get(i < values.size() ? i : 0));
+        }
+      }, rowMapper));
+    }
+    return rows;
   }
 
   List<ImageBattleFolder> queryFolders(CentralStorage centralStorage) {
@@ -472,29 +1240,174 @@ final class Database {
    *          Any sql statement you want to be executed and don't expect an result from.
    */
   private void executeSql(final String sql) {
-    try (Connection connection = dataSource.getConnection()) {
-      final Statement statement = connection.createStatement();
+    try (Connection connection = dataSource.getConnection();
+        Statement statement = connection.createStatement()) {
       statement.execute(sql);
-      statement.close();
     } catch (SQLException e) {
       throw new IllegalStateException("sql execute error", e);
     }
   }
 
+  /**
+   * Runs the statement once per value, all in one transaction using JDBC batching. The statement
+   * is prepared on the first call and then reused.
+   */
+  private synchronized <T> void executeBatch(final String sql, final Collection<T> values,
+      final ParameterSetter<T> parameterSetter) {
+    if (values.isEmpty()) {
+      return;
+    }
+    try {
+      final PreparedStatement statement = prepare(sql);
+      if (inTransaction) {
+        addBatch(statement, values, parameterSetter);
+        return;
+      }
+      connection.setAutoCommit(false);
+      try {
+        addBatch(statement, values, parameterSetter);
+        connection.commit();
+      } catch (SQLException e) {
+        connection.rollback();
+        throw e;
+      } finally {
+        connection.setAutoCommit(true);
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException("sql batch error", e);
+    }
+  }
+
+  private static <T> void addBatch(final PreparedStatement statement, final Collection<T> values,
+      final ParameterSetter<T> parameterSetter) throws SQLException {
+    for (final T value : values) {
+      parameterSetter.set(statement, value);
+      statement.addBatch();
+    }
+    statement.executeBatch();
+  }
+
+  /**
+   * Commits all writes of the runnable together. Other threads wait with their writes until it is
+   * finished.
+   * 
+   * @throws IllegalStateException
+   *           if a write failed. Then none of the writes is stored.
+   */
+  synchronized void inTransaction(final Runnable writes) {
+    if (inTransaction) {
+      writes.run();
+      return;
+    }
+    try {
+      if (connection == null) {
+        connection = dataSource.getConnection();
+      }
+      connection.setAutoCommit(false);
+      inTransaction = true;
+      try {
+        writes.run();
+        connection.commit();
+      } catch (SQLException | RuntimeException e) {
+        connection.rollback();
+        throw e;
+      } finally {
+        inTransaction = false;
+        connection.setAutoCommit(true);
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException("sql transaction error", e);
+    }
+  }
+
+  /**
+   * Like {@link #query(String, RowMapper)} but with a cached {@link PreparedStatement}. Meant for
+   * lookups that run very often.
+   */
+  private synchronized <T, P> List<T> queryPrepared(final String sql, final P parameter,
+      final ParameterSetter<P> parameterSetter, final RowMapper<T> rowMapper) {
+    final List<T> result = new ArrayList<>();
+    try {
+      final PreparedStatement statement = prepare(sql);
+      parameterSetter.set(statement, parameter);
+      try (ResultSet resultSet = statement.executeQuery()) {
+        while (resultSet.next()) {
+          result.add(rowMapper.map(resultSet));
+        }
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException("sql query error", e);
+    }
+    return result;
+  }
+
+  private PreparedStatement prepare(final String sql) throws SQLException {
+    PreparedStatement statement = statements.get(sql);
+    if (statement == null) {
+      if (connection == null) {
+        connection = dataSource.getConnection();
+      }
+      statement = connection.prepareStatement(sql);
+      statements.put(sql, statement);
+    }
+    return statement;
+  }
+
+  /**
+   * Closes the connection of the prepared statements. The database can still be used afterwards,
+   * it would be opened again.
+   */
+  synchronized void close() {
+    try {
+      if (connection != null) {
+        connection.close();
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException("sql close error", e);
+    } finally {
+      connection = null;
+      statements.clear();
+    }
+  }
+
   private <T> List<T> query(String query, RowMapper<T> rowMapper) {
-    final List<T> result = new LinkedList<>();
+    return query(query, Collections.emptyList(), rowMapper);
+  }
+
+  /**
+   * Runs on its own connection, so it does not wait for writes on the cached one.
+   * 
+   * @param parameters
+   *          Values of the question marks in the query.
+   */
+  private <T> List<T> query(String query, List<String> parameters, RowMapper<T> rowMapper) {
+    final List<T> result = new ArrayList<>();
+    forEachRow(query, parameters, resultSet -> result.add(rowMapper.map(resultSet)));
+    return result;
+  }
+
+  /**
+   * Hands each row to the consumer while the result set is read. Nothing is collected, so big
+   * results do not have to fit into memory twice.
+   * 
+   * @param parameters
+   *          Values of the question marks in the query.
+   */
+  private void forEachRow(String query, List<String> parameters, RowConsumer rowConsumer) {
     try (Connection connection = dataSource.getConnection()) {
-      try (Statement statement = connection.createStatement()) {
-        try (ResultSet resultSet = statement.executeQuery(query)) {
+      try (PreparedStatement statement = connection.prepareStatement(query)) {
+        for (int i = 0; i < parameters.size(); i++) {
+          statement.setString(i + 1, parameters.get(i));
+        }
+        try (ResultSet resultSet = statement.executeQuery()) {
           while (resultSet.next()) {
-            result.add(rowMapper.map(resultSet));
+            rowConsumer.accept(resultSet);
           }
         }
       }
     } catch (SQLException e) {
       throw new IllegalStateException("sql query error", e);
     }
-    return result;
   }
 
   private MediaType detectMediaType(final File file) {
@@ -0,0 +1,70 @@
+package org.imagebattle;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Optional;
+
+/**
+ * The latest decisions of an {@link ImageBattleFolder} with the edges each of them changed, so they
+ * can be undone and redone without touching other edges. Only the latest decision can be undone,
+ * otherwise edges implied by later decisions could lose their reason.
+ *
+ * @author KoaGex
+ *
+ */
+final class DecisionJournal {
+
+  /**
+   * Older decisions are forgotten, they are rarely undone and would only occupy memory.
+   */
+  private static final int CAPACITY = 1000;
+
+  private final Deque<GraphChange> decisions = new ArrayDeque<>();
+
+  private final Deque<GraphChange> undone = new ArrayDeque<>();
+
+  /**
+   * Appends the change of a new decision. Undone decisions can no longer be redone.
+   */
+  void record(GraphChange change) {
+    if (change.isEmpty()) {
+      return;
+    }
+    decisions.push(change);
+    if (decisions.size() > CAPACITY) {
+      decisions.removeLast();
+    }
+    undone.clear();
+  }
+
+  /**
+   * @return The latest decision that was not undone yet.
+   */
+  Optional<GraphChange> undo() {
+    GraphChange change = decisions.poll();
+    if (change != null) {
+      undone.push(change);
+    }
+    return Optional.ofNullable(change);
+  }
+
+  /**
+   * @return The decision that was undone last.
+   */
+  Optional<GraphChange> redo() {
+    GraphChange change = undone.poll();
+    if (change != null) {
+      decisions.push(change);
+    }
+    return Optional.ofNullable(change);
+  }
+
+  /**
+   * Forgets everything. Needed when the graph was changed by something else than a decision.
+   */
+  void clear() {
+    decisions.clear();
+    undone.clear();
+  }
+
+}
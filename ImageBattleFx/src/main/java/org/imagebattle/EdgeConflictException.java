@@ -0,0 +1,35 @@
+package org.imagebattle;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Thrown when a new edge would close a cycle because the loser already won against the winner.
+ *
+ * @author KoaGex
+ *
+ */
+public class EdgeConflictException extends IllegalStateException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final List<File> path;
+
+  /**
+   * @param path
+   *          Starts with the loser of the new edge and ends with its winner. Each file won against
+   *          the next one.
+   */
+  EdgeConflictException(File winner, File loser, List<File> path) {
+    super(winner + " can not win against " + loser + " because of "
+        + path.stream().map(File::getName).collect(Collectors.joining(" -> ")));
+    this.path = Collections.unmodifiableList(path);
+  }
+
+  public List<File> path() {
+    return path;
+  }
+
+}
@@ -1,11 +1,11 @@
 package org.imagebattle;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.security.DigestInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -15,6 +15,22 @@ import org.apache.logging.log4j.Logger;
 public class FileContentHash {
   private static final Logger LOG = LogManager.getLogger();
 
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  /**
+   * Bytes read at the start, in the middle and at the end for the {@link #quickHash()}.
+   */
+  static final int QUICK_CHUNK = 64 << 10;
+
+  /**
+   * Hashing runs on several threads, each reuses its own buffer. A direct buffer is filled by the
+   * channel without copying through the java heap.
+   */
+  private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal
+      .withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
   private final File file;
 
   public FileContentHash(File file) {
@@ -22,38 +38,88 @@ public class FileContentHash {
   }
 
   /**
-   * @return A hash calculated by using the whole file content.
+   * @return SHA-256 of the whole file content as 64 lower case hex digits.
    */
   public String hash() {
-    BufferedReader br = null;
-    try {
-      try {
-        final long start = System.currentTimeMillis();
-        MessageDigest md = MessageDigest.getInstance("SHA-256");
-        br = new BufferedReader(new InputStreamReader(new DigestInputStream(//
-            new FileInputStream(file), md)));
-        br.lines().count();
-
-        byte[] digest = md.digest();
-        StringBuilder stringBuilder = new StringBuilder();
-        for (byte b : digest) {
-          String hexString2 = Integer.toHexString(0xff & b);
-          stringBuilder.append(hexString2);
-        }
-        String hash = stringBuilder.toString();
-        long end = System.currentTimeMillis();
-        LOG.debug("hash time for file   {}   with size:  {}   took:  {}", file.getAbsolutePath(),
-            file.length(), (end - start));
-        System.err.println();
-        return hash;
-
-      } finally {
-        if (br != null) {
-          br.close();
+    final long start = System.currentTimeMillis();
+    final MessageDigest md = sha256();
+
+    final ByteBuffer buffer = BUFFER.get();
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      buffer.clear();
+      while (channel.read(buffer) >= 0) {
+        buffer.flip();
+        md.update(buffer);
+        buffer.clear();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    final String hash = toHex(md.digest());
+    LOG.debug("hash time for file   {}   with size:  {}   took:  {}", file.getAbsolutePath(),
+        file.length(), (System.currentTimeMillis() - start));
+    return hash;
+  }
+
+  /**
+   * A fingerprint that reads at most three chunks of {@link #QUICK_CHUNK} bytes, no matter how big
+   * the file is. Files with different fingerprints have different content. Files with the same
+   * fingerprint probably have the same content, only the {@link #hash()} is sure.
+   * 
+   * @return SHA-256 of the size and of the first, middle and last chunk. For small files the whole
+   *         content.
+   */
+  public String quickHash() {
+    final MessageDigest md = sha256();
+    final ByteBuffer buffer = BUFFER.get();
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      final long size = channel.size();
+      buffer.clear();
+      buffer.putLong(size);
+      buffer.flip();
+      md.update(buffer);
+      final boolean small = size <= 3L * QUICK_CHUNK;
+      final long[] positions = small ? new long[] { 0 }
+          : new long[] { 0, size / 2 - QUICK_CHUNK / 2, size - QUICK_CHUNK };
+      for (long position : positions) {
+        buffer.clear();
+        buffer.limit(small ? (int) size : QUICK_CHUNK);
+        long read = position;
+        while (buffer.hasRemaining()) {
+          final int count = channel.read(buffer, read);
+          if (count < 0) {
+            // shrunk while reading
+            break;
+          }
+          read += count;
         }
+        buffer.flip();
+        md.update(buffer);
       }
-    } catch (NoSuchAlgorithmException | IOException e) {
-      throw new RuntimeException(e);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return toHex(md.digest());
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @return Two digits per byte, so every hash has the same length.
+   */
+  static String toHex(byte[] bytes) {
+    final char[] hex = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+      hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
     }
+    return new String(hex);
   }
 }
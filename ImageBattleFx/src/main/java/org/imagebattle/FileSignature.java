@@ -0,0 +1,69 @@
+package org.imagebattle;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * What the file system tells about a file without reading its content. When the signature did not
+ * change since the file was hashed, the stored hash is still valid.
+ *
+ * @author KoaGex
+ *
+ */
+final class FileSignature {
+
+  final long size;
+
+  final long modified;
+
+  /**
+   * Identifies the file independent of its path, for example device and inode on linux. Null where
+   * the file system has no such key, like NTFS.
+   */
+  final String fileKey;
+
+  FileSignature(long size, long modified, String fileKey) {
+    this.size = size;
+    this.modified = modified;
+    this.fileKey = fileKey;
+  }
+
+  static FileSignature of(File file) {
+    // File.lastModified as before, nio has a finer resolution on some systems
+    long modified = file.lastModified();
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(file.toPath(),
+          BasicFileAttributes.class);
+      Object fileKey = attributes.fileKey();
+      return new FileSignature(attributes.size(), modified,
+          fileKey == null ? null : fileKey.toString());
+    } catch (IOException e) {
+      return new FileSignature(file.length(), modified, null);
+    }
+  }
+
+  /**
+   * Stored values that are null were not known yet and are not compared.
+   */
+  boolean matches(Long storedSize, Long storedModified, String storedFileKey) {
+    return (storedSize == null || storedSize == size)
+        && (storedModified == null || storedModified == modified)
+        && (storedFileKey == null || fileKey == null || storedFileKey.equals(fileKey));
+  }
+
+  /**
+   * @return Whether this knows something the stored values do not.
+   */
+  boolean completes(Long storedSize, Long storedModified, String storedFileKey) {
+    return storedSize == null || storedModified == null
+        || (storedFileKey == null && fileKey != null);
+  }
+
+  @Override
+  public String toString() {
+    return "size " + size + ", modified " + modified + ", key " + fileKey;
+  }
+
+}
@@ -0,0 +1,41 @@
+package org.imagebattle;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+import javafx.util.Pair;
+
+/**
+ * Edges that one decision added to and removed from a {@link TransitiveDiGraph}. Each pair is
+ * winner and loser.
+ *
+ * @author KoaGex
+ *
+ */
+public final class GraphChange {
+
+  private final List<Pair<File, File>> addedEdges;
+  private final List<Pair<File, File>> removedEdges;
+
+  GraphChange(List<Pair<File, File>> addedEdges, List<Pair<File, File>> removedEdges) {
+    this.addedEdges = Collections.unmodifiableList(addedEdges);
+    this.removedEdges = Collections.unmodifiableList(removedEdges);
+  }
+
+  /**
+   * @return The edge of the decision comes first, then the edges that follow from it.
+   */
+  public List<Pair<File, File>> addedEdges() {
+    return addedEdges;
+  }
+
+  public List<Pair<File, File>> removedEdges() {
+    return removedEdges;
+  }
+
+  public boolean isEmpty() {
+    return addedEdges.isEmpty() && removedEdges.isEmpty();
+  }
+
+}
@@ -0,0 +1,178 @@
+package org.imagebattle;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Binary copy of the graph of one {@link ImageBattleFolder}. Reading it is much faster than
+ * joining and filtering the edges in the {@link Database}, but it is only valid as long as the
+ * revision of the folder did not change.
+ *
+ * <p>
+ * Format, all numbers big endian:
+ * <ol>
+ * <li>int magic, int format version</li>
+ * <li>long database id, long folder revision</li>
+ * <li>folder key as string</li>
+ * <li>int vertex count n, int words per row w, long edge count</li>
+ * <li>n absolute paths as strings. The position in this table is the vertex index.</li>
+ * <li>n rows of w longs: bit j of row i is set when vertex i won against vertex j</li>
+ * </ol>
+ * A string is an int byte count followed by UTF-8 bytes.
+ * </p>
+ *
+ * @author KoaGex
+ *
+ */
+final class GraphSnapshot {
+
+  private static final Logger LOG = LogManager.getLogger();
+
+  private static final int MAGIC = 0x49424753; // IBGS
+
+  /**
+   * Version 2 stores the revision of the folder instead of the whole database.
+   */
+  private static final int VERSION = 2;
+
+  private GraphSnapshot() {
+  }
+
+  /**
+   * Replaces the file. It is written next to it first so a crash never leaves half a snapshot.
+   */
+  static void write(File file, String key, long databaseId, long revision,
+      TransitiveDiGraph graph) {
+    ReachabilityMatrix matrix = graph.matrix();
+    long[] alive = matrix.aliveRow();
+    int[] indexOfId = new int[matrix.idLimit()];
+    List<File> vertices = new ArrayList<>(matrix.vertexCount());
+    for (int id = ReachabilityMatrix.nextSetBit(alive, 0); id >= 0; id = ReachabilityMatrix
+        .nextSetBit(alive, id + 1)) {
+      indexOfId[id] = vertices.size();
+      vertices.add(matrix.file(id));
+    }
+    int words = (vertices.size() + 63) >>> 6;
+
+    File temporary = new File(file.getPath() + ".tmp");
+    try {
+      Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(temporary)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(databaseId);
+        out.writeLong(revision);
+        writeString(out, key);
+        out.writeInt(vertices.size());
+        out.writeInt(words);
+        out.writeLong(matrix.edgeCount());
+        for (File vertex : vertices) {
+          writeString(out, vertex.getAbsolutePath());
+        }
+
+        long[] row = new long[words];
+        for (File vertex : vertices) {
+          Arrays.fill(row, 0L);
+          long[] winRow = matrix.winRow(matrix.id(vertex));
+          for (int loser = ReachabilityMatrix.nextSetBit(winRow, 0); loser >= 0;
+              loser = ReachabilityMatrix.nextSetBit(winRow, loser + 1)) {
+            int index = indexOfId[loser];
+            row[index >>> 6] |= 1L << index;
+          }
+          for (long word : row) {
+            out.writeLong(word);
+          }
+        }
+      }
+      Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      LOG.info("wrote {} with {} vertices", file, vertices.size());
+    } catch (IOException e) {
+      // Not worth failing for, the next read falls back to the database.
+      LOG.warn("could not write snapshot " + file, e);
+    }
+  }
+
+  /**
+   * @return {@link Optional#empty()} when the file is missing, broken or was written for another
+   *         key, database or revision.
+   */
+  static Optional<TransitiveDiGraph> read(File file, String key, long databaseId, long revision) {
+    if (!file.isFile()) {
+      return Optional.empty();
+    }
+    try {
+      // not mapped, a mapped file can not be replaced on windows until the mapping is collected
+      ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+      if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+        LOG.info("unknown format: {}", file);
+        return Optional.empty();
+      }
+      if (buffer.getLong() != databaseId || buffer.getLong() != revision
+          || !key.equals(readString(buffer))) {
+        LOG.info("outdated: {}", file);
+        return Optional.empty();
+      }
+
+      int vertexCount = buffer.getInt();
+      int words = buffer.getInt();
+      long edgeCount = buffer.getLong();
+      List<File> vertices = new ArrayList<>(vertexCount);
+      for (int i = 0; i < vertexCount; i++) {
+        vertices.add(new File(readString(buffer)));
+      }
+
+      LongBuffer rows = buffer.asLongBuffer();
+      int[] edges = new int[Math.toIntExact(edgeCount * 2)];
+      int i = 0;
+      for (int winner = 0; winner < vertexCount; winner++) {
+        for (int w = 0; w < words; w++) {
+          long word = rows.get(winner * words + w);
+          while (word != 0) {
+            edges[i++] = winner;
+            edges[i++] = (w << 6) + Long.numberOfTrailingZeros(word);
+            word &= word - 1;
+          }
+        }
+      }
+
+      TransitiveDiGraph graph = new TransitiveDiGraph();
+      graph.addEdgesBulk(vertices, edges);
+      LOG.info("read {} with {} vertices", file, vertexCount);
+      return Optional.of(graph);
+    } catch (IOException | RuntimeException e) {
+      // Truncated or otherwise broken files end up here as well.
+      LOG.warn("could not read snapshot " + file, e);
+      return Optional.empty();
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String string) throws IOException {
+    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+}
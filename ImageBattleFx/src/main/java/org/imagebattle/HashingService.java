@@ -0,0 +1,178 @@
+package org.imagebattle;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Computes {@link FileContentHash}es on worker threads, so the thread that needs a hash does not
+ * read the file itself. Each device has its own queue and as many workers as it has readers.
+ * Several readers keep a SSD busy, but make a spinning disk jump between files instead of reading.
+ * A slow disk does not hold back the files of another device.
+ *
+ * @author KoaGex
+ *
+ */
+final class HashingService implements AutoCloseable {
+
+  private static final Logger LOG = LogManager.getLogger();
+
+  private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+  private static final HashingService SHARED = new HashingService(CORES,
+      HashingService::defaultReaders);
+
+  /**
+   * Workers of a device that has nothing to hash end after this time.
+   */
+  private static final long IDLE_SECONDS = 30;
+
+  private final int threads;
+
+  private final ToIntFunction<FileStore> readersPerDevice;
+
+  private final Map<FileStore, ExecutorService> devices = new ConcurrentHashMap<>();
+
+  /**
+   * The files of one directory are on the same device, so it is looked up once per directory.
+   */
+  private final Map<File, FileStore> directories = new ConcurrentHashMap<>();
+
+  private final AtomicInteger count = new AtomicInteger();
+
+  private volatile boolean closed = false;
+
+  /**
+   * @param threads
+   *          Files hashed at the same time from one device, at most.
+   * @param readersPerDevice
+   *          Files read at the same time from one device. Asked once per device.
+   */
+  HashingService(int threads, ToIntFunction<FileStore> readersPerDevice) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads must be positive: " + threads);
+    }
+    this.threads = threads;
+    this.readersPerDevice = readersPerDevice;
+  }
+
+  /**
+   * @return The service all databases share, so two registrations do not read the same disk with
+   *         twice the allowed readers.
+   */
+  static HashingService shared() {
+    return SHARED;
+  }
+
+  /**
+   * @return Completes with {@link FileContentHash#hash()}, or exceptionally if the file can not be
+   *         read.
+   */
+  CompletableFuture<String> hash(File file) {
+    return submit(file, FileContentHash::hash);
+  }
+
+  /**
+   * @return Completes with {@link FileContentHash#quickHash()}, or exceptionally if the file can not
+   *         be read.
+   */
+  CompletableFuture<String> quickHash(File file) {
+    return submit(file, FileContentHash::quickHash);
+  }
+
+  private CompletableFuture<String> submit(File file, Function<FileContentHash, String> hash) {
+    FileStore store;
+    try {
+      store = store(file.getAbsoluteFile().getParentFile());
+    } catch (IOException e) {
+      CompletableFuture<String> failed = new CompletableFuture<>();
+      failed.completeExceptionally(new UncheckedIOException(e));
+      return failed;
+    }
+    return CompletableFuture.supplyAsync(() -> hash.apply(new FileContentHash(file)),
+        devices.computeIfAbsent(store, this::workers));
+  }
+
+  private FileStore store(File directory) throws IOException {
+    FileStore store = directories.get(directory);
+    if (store == null) {
+      store = Files.getFileStore(directory.toPath());
+      directories.putIfAbsent(directory, store);
+    }
+    return store;
+  }
+
+  private ExecutorService workers(FileStore store) {
+    if (closed) {
+      throw new RejectedExecutionException("closed");
+    }
+    int readers = Math.min(threads, Math.max(1, readersPerDevice.applyAsInt(store)));
+    LOG.info("{} readers for {}", readers, store);
+    ThreadPoolExecutor workers = new ThreadPoolExecutor(readers, readers, IDLE_SECONDS,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+          Thread thread = new Thread(runnable, "hash " + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+    workers.allowCoreThreadTimeOut(true);
+    return workers;
+  }
+
+  /**
+   * Does not wait for running hashes, their futures still complete.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    devices.values().forEach(ExecutorService::shutdown);
+  }
+
+  /**
+   * One reader for a spinning disk, all cores for everything else. Linux tells whether a disk
+   * rotates, other systems are treated like a SSD.
+   */
+  static int defaultReaders(FileStore store) {
+    String name = store.name();
+    String device = name.substring(name.lastIndexOf('/') + 1);
+    List<Path> candidates;
+    try {
+      // a partition has no queue of its own, its disk is the parent directory
+      candidates = Arrays.asList(Paths.get("/sys/class/block", device, "queue", "rotational"),
+          Paths.get("/sys/class/block", device, "..", "queue", "rotational"));
+    } catch (InvalidPathException e) {
+      return CORES;
+    }
+    for (Path rotational : candidates) {
+      try {
+        if (Files.isReadable(rotational)) {
+          return "1".equals(Files.readAllLines(rotational).get(0).trim()) ? 1 : CORES;
+        }
+      } catch (IOException | IndexOutOfBoundsException e) {
+        LOG.debug("could not read {}", rotational, e);
+      }
+    }
+    return CORES;
+  }
+
+}
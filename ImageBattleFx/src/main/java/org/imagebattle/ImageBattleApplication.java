@@ -160,6 +160,7 @@ public class ImageBattleApplication extends Application {
     // gather images
     CentralStorage centralStorage = new CentralStorage(CentralStorage.SQLITE_FILE);
     imageBattleFolder = new ImageBattleFolder(centralStorage, dir, mediaType, recursive, "name");
+    Runtime.getRuntime().addShutdownHook(new Thread(imageBattleFolder::saveSnapshot));
 
     ratingScene = ratingSceneCreator.apply(imageBattleFolder, this::showResultsScene);
 
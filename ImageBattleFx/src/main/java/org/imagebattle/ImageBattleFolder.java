@@ -6,17 +6,18 @@ import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -34,7 +35,6 @@ import org.imagebattle.chooser.RandomCandidateChooser;
 import org.imagebattle.chooser.RankingTopDownCandidateChooser;
 import org.imagebattle.chooser.SameWinLoseRationCandidateChooser;
 import org.imagebattle.chooser.WinnerOrientedCandidateChooser;
-import org.jgrapht.graph.DefaultEdge;
 
 /**
  * Represents one folder the user has chosen. Files that are direct or indirect children of this
@@ -62,6 +62,8 @@ public class ImageBattleFolder {
 
   private final Set<File> ignoredFiles = new HashSet<>();
 
+  private final DecisionJournal journal = new DecisionJournal();
+
   /**
    * Multiple strategies to select the next images to be compared.
    */
@@ -78,6 +80,13 @@ public class ImageBattleFolder {
 
   private final String name;
 
+  /**
+   * The {@link CentralStorage#revision(File, boolean)} of this folder that {@link #graph} matches.
+   * When the files of this folder are changed by someone else it stays behind and no snapshot is
+   * written.
+   */
+  private volatile long graphRevision;
+
   /**
    * @param centralStorage
    *          TODO
@@ -93,6 +102,22 @@ public class ImageBattleFolder {
       MediaType mediaType, //
       Boolean recursive, //
       String name//
+  ) {
+    this(centralStorage, chosenDirectory, mediaType, recursive, name, RegistrationProgress.NONE);
+  }
+
+  /**
+   * @param progress
+   *          Follows the registration of the files. Opening a folder with many new files spends
+   *          most of its time there.
+   */
+  public ImageBattleFolder(//
+      CentralStorage centralStorage, //
+      File chosenDirectory, //
+      MediaType mediaType, //
+      Boolean recursive, //
+      String name, //
+      RegistrationProgress progress//
   ) {
     this.centralStorage = centralStorage;
     this.mediaType = mediaType;
@@ -101,32 +126,44 @@ public class ImageBattleFolder {
     directory = chosenDirectory;
     Predicate<File> fileRegex = mediaType::matches;
 
-    graph = new TransitiveDiGraph();
-
     log.info("chosenDirectory: {}", chosenDirectory);
 
     // search for new images and add them
     LinkedList<File> currentLevel = findFiles(chosenDirectory, recursive, fileRegex);
 
     // register new files so centralStorage can return them in readGraph and readIgnoreFile.
-    centralStorage.registerFiles(currentLevel);
-
-    // Merge in vertexes and edges from CentralStorage.
-    TransitiveDiGraph readGraph = centralStorage.readGraph(chosenDirectory, fileRegex, recursive);
-    readGraph.vertexSet().forEach(graph::addVertex);
-    readGraph.edgeSet().forEach(edge -> {
-      File edgeSource = readGraph.getEdgeSource(edge);
-      File edgeTarget = readGraph.getEdgeTarget(edge);
-      graph.addEdge(edgeSource, edgeTarget);
-    });
+    centralStorage.preloadMediaIds(chosenDirectory);
+    centralStorage.registerFiles(currentLevel, progress);
 
     // Merge in ignored files from CentralStorage.
+    Set<File> scannedFiles = new HashSet<>(currentLevel);
     Set<File> readIgnoreFile = centralStorage.readIgnoreFile(chosenDirectory, mediaType, recursive);
+    readIgnoreFile.retainAll(scannedFiles);
     ignoredFiles.addAll(readIgnoreFile);
 
-    currentLevel.stream()//
+    Set<File> battleFiles = currentLevel.stream()//
         .filter(f -> !ignoredFiles.contains(f))//
-        .forEach(graph::addVertex);
+        .collect(Collectors.toSet());
+
+    // Start with vertexes and edges from the snapshot or from CentralStorage. A snapshot that lacks
+    // some of the files may have been written while they were missing, their edges can only be
+    // read from CentralStorage.
+    graphRevision = revision();
+    Optional<TransitiveDiGraph> snapshot = centralStorage
+        .readSnapshot(snapshotKey(), graphRevision)//
+        .filter(snapshotGraph -> snapshotGraph.vertexSet().containsAll(battleFiles));
+    // only scanned files, so an existing copy represents its content instead of a deleted one
+    graph = snapshot
+        .orElseGet(() -> centralStorage.readGraph(chosenDirectory, scannedFiles::contains,
+            recursive));
+
+    battleFiles.forEach(graph::addVertex);
+
+    // Files that were deleted since the snapshot was written.
+    graph.vertexSet().stream()//
+        .filter(f -> !scannedFiles.contains(f))//
+        .collect(Collectors.toList())//
+        .forEach(graph::removeVertex);
 
     // Handle files that were in edges AND on ignore list.
     Set<File> vertexSet = graph.vertexSet();
@@ -137,6 +174,10 @@ public class ImageBattleFolder {
     log.warn("these {} files were in the edges and in ignore list of central storage: {}",
         intersection.size(), intersection);
 
+    if (!snapshot.isPresent()) {
+      saveSnapshot();
+    }
+
     // List<File> inconsistencies = centralStorage.getInconsistencies();
     // long count = inconsistencies.stream()//
     // .filter(intersection::contains)//
@@ -206,13 +247,7 @@ public class ImageBattleFolder {
    */
   public List<ResultListEntry> getResultList() {
 
-    // Comparator<File> winnerFirstComparator =
-    // Comparator.comparing(graph2::outDegreeOf).reversed()
-    // .thenComparing(Comparator.comparing(graph2::inDegreeOf));
-    Comparator<File> winnerFirstComparator = Comparator.comparing(graph::getWinLoseDifference,
-        Comparator.reverseOrder());
-    List<ResultListEntry> resultList = graph.vertexSet().stream() //
-        .sorted(winnerFirstComparator)//
+    List<ResultListEntry> resultList = graph.getRankingList().stream() //
         .map(graph::fileToResultEntry)//
         .collect(Collectors.toList());
     // zip would be cool
@@ -234,23 +269,82 @@ public class ImageBattleFolder {
 
   public void makeDecision(File pWinner, File pLoser) {
 
-    List<DefaultEdge> newEdges = graph.addEdgesTransitive(pWinner, pLoser);
+    // The user just saw both files, that decision is more reliable than an older one.
+    GraphChange change = graph.addEdgesTransitive(pWinner, pLoser, ConflictPolicy.KEEP_NEWEST);
+    journal.record(change);
+    writeThrough(() -> {
+      centralStorage.removeEdges(change.removedEdges());
+      centralStorage.addEdges(change.addedEdges());
 
-    Function<DefaultEdge, Pair<File, File>> function = edge -> {
-      File winner = graph.getEdgeSource(edge);
-      File loser = graph.getEdgeTarget(edge);
-      return new Pair<>(winner, loser);
-    };
+      // Clean up inconsistent central storage (when files are both ignored and in the graph).
+      centralStorage.removeFromIgnored(pLoser);
+      centralStorage.removeFromIgnored(pWinner);
+    });
 
-    List<Pair<File, File>> newEdgePairs = newEdges.stream()//
-        .map(function)//
-        .collect(Collectors.toList());
-    centralStorage.addEdges(newEdgePairs);
+  }
+
+  /**
+   * Takes back the latest decisions. Exactly the edges they added are removed and the edges they
+   * removed are added again, other edges are not touched.
+   * 
+   * @param count
+   *          How many decisions. Fewer are undone when there are not that many.
+   * @return The undone decisions as winner and loser, latest first.
+   */
+  public List<Pair<File, File>> undo(int count) {
+    List<Pair<File, File>> decisions = new ArrayList<>();
+    Map<Pair<File, File>, Boolean> stored = new LinkedHashMap<>();
+    for (int i = 0; i < count; i++) {
+      Optional<GraphChange> change = journal.undo();
+      if (!change.isPresent()) {
+        break;
+      }
+      graph.revert(change.get());
+      change.get().addedEdges().forEach(edge -> stored.put(edge, false));
+      change.get().removedEdges().forEach(edge -> stored.put(edge, true));
+      decisions.add(change.get().addedEdges().get(0));
+    }
+    store(stored);
+    log.info("undone: {}", decisions);
+    return decisions;
+  }
 
-    // Clean up inconsistent central storage (when files are both ignored and in the graph).
-    centralStorage.removeFromIgnored(pLoser);
-    centralStorage.removeFromIgnored(pWinner);
+  /**
+   * Applies decisions of {@link #undo(int)} again, as long as no new decision was made since.
+   * 
+   * @return The redone decisions as winner and loser, oldest first.
+   */
+  public List<Pair<File, File>> redo(int count) {
+    List<Pair<File, File>> decisions = new ArrayList<>();
+    Map<Pair<File, File>, Boolean> stored = new LinkedHashMap<>();
+    for (int i = 0; i < count; i++) {
+      Optional<GraphChange> change = journal.redo();
+      if (!change.isPresent()) {
+        break;
+      }
+      graph.reapply(change.get());
+      change.get().removedEdges().forEach(edge -> stored.put(edge, false));
+      change.get().addedEdges().forEach(edge -> stored.put(edge, true));
+      decisions.add(change.get().addedEdges().get(0));
+    }
+    store(stored);
+    log.info("redone: {}", decisions);
+    return decisions;
+  }
 
+  /**
+   * @param stored
+   *          Whether each edge exists after a couple of changes. Only the result is written, in one
+   *          transaction for all removed edges.
+   */
+  private void store(Map<Pair<File, File>, Boolean> stored) {
+    Map<Boolean, List<Pair<File, File>>> byExistence = stored.entrySet().stream()//
+        .collect(Collectors.partitioningBy(Map.Entry::getValue,
+            Collectors.mapping(Map.Entry::getKey, Collectors.toList())));
+    writeThrough(() -> {
+      centralStorage.removeEdges(byExistence.get(false));
+      centralStorage.addEdges(byExistence.get(true));
+    });
   }
 
   public Set<String> getChoosingAlgorithms() {
@@ -296,6 +390,10 @@ public class ImageBattleFolder {
           graph.removeVertex(value);
           bothExist = false;
         }
+        if (!bothExist) {
+          // recorded decisions may refer to the removed vertices
+          journal.clear();
+        }
       } else {
         bothExist = true; // break the loop.
       }
@@ -317,16 +415,19 @@ public class ImageBattleFolder {
     log.trace(" Now on ignore: {}", ignoredFiles);
 
     ignoredFiles.add(file);
-    centralStorage.addToIgnored(file);
 
     graph.removeVertex(file);
-    centralStorage.removeFromEdges(file);
+    journal.clear();
+    writeThrough(() -> {
+      centralStorage.addToIgnored(file);
+      centralStorage.removeFromEdges(file);
+    });
 
   }
 
   double getProgress() {
-    int maxEdgeCount = graph.getMaxEdgeCount();
-    int currentEdgeCount = graph.getCurrentEdgeCount();
+    long maxEdgeCount = graph.getMaxEdgeCount();
+    long currentEdgeCount = graph.getCurrentEdgeCount();
     return Double.valueOf(currentEdgeCount) / Double.valueOf(maxEdgeCount);
   }
 
@@ -338,10 +439,47 @@ public class ImageBattleFolder {
   void reset(File fileToReset) {
     graph.removeVertex(fileToReset);
     graph.addVertex(fileToReset);
-    centralStorage.removeFromEdges(fileToReset);
-
+    journal.clear();
     ignoredFiles.remove(fileToReset);
-    centralStorage.removeFromIgnored(fileToReset);
+    writeThrough(() -> {
+      centralStorage.removeFromEdges(fileToReset);
+      centralStorage.removeFromIgnored(fileToReset);
+    });
+  }
+
+  /**
+   * Writes a change of {@link #graph} to the central storage in the background, the graph itself
+   * is already changed. If nobody else wrote since the graph was read, the graph still matches the
+   * central storage afterwards. The writer runs one write at a time, so the check and the write
+   * can not be interleaved with another folder that shares files with this one.
+   */
+  private void writeThrough(Runnable write) {
+    centralStorage.writeBehind(() -> {
+      boolean upToDate = graphRevision == revision();
+      write.run();
+      if (upToDate) {
+        graphRevision = revision();
+      }
+    });
+  }
+
+  /**
+   * Writes a {@link GraphSnapshot} so the next start does not need to query the central storage.
+   * Nothing is written when the graph might miss changes of the central storage.
+   */
+  void saveSnapshot() {
+    // revision() waits for the pending writes of this folder
+    if (graphRevision == revision()) {
+      centralStorage.writeSnapshot(snapshotKey(), graphRevision, graph);
+    }
+  }
+
+  private long revision() {
+    return centralStorage.revision(directory, recursive);
+  }
+
+  private String snapshotKey() {
+    return mediaType.name() + "|" + recursive + "|" + directory.getAbsolutePath();
   }
 
   private void checkFinished() {
@@ -376,10 +514,11 @@ public class ImageBattleFolder {
         .collect(Collectors.joining(",\n"));
     String nodes = " \"nodes\": [" + nodeList + "]";
 
-    String linkList = graph.edgeSet().stream()//
+    // pairs of loser and winner
+    String linkList = graph.getEdgePairs().stream()//
         .map(e -> {
-          File source = graph.getEdgeSource(e);
-          File target = graph.getEdgeTarget(e);
+          File source = e.getValue();
+          File target = e.getKey();
           return " {\"source\": \"" + source.getAbsolutePath().hashCode() + "\", \"target\": \""
               + target.getAbsolutePath().hashCode() + "\"}";
         })//
@@ -397,8 +536,8 @@ public class ImageBattleFolder {
 
     String edges = graph.simplifiedEdges().stream()//
         .map(e -> {
-          Integer source = nodeMap.get(graph.getEdgeSource(e));
-          Integer target = nodeMap.get(graph.getEdgeTarget(e));
+          Integer source = nodeMap.get(e.getKey());
+          Integer target = nodeMap.get(e.getValue());
           return source + " -> " + target + ";";
         })//
         .collect(Collectors.joining("\n"));
@@ -0,0 +1,51 @@
+package org.imagebattle;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Thread safe map that forgets the least recently used entry when it grows beyond its capacity.
+ *
+ * @author KoaGex
+ *
+ */
+final class LruCache<K, V> {
+
+  private final Map<K, V> map;
+
+  LruCache(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    }
+    map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  synchronized Optional<V> get(K key) {
+    return Optional.ofNullable(map.get(key));
+  }
+
+  synchronized void put(K key, V value) {
+    map.put(key, value);
+  }
+
+  synchronized void remove(K key) {
+    map.remove(key);
+  }
+
+  synchronized void clear() {
+    map.clear();
+  }
+
+  synchronized int size() {
+    return map.size();
+  }
+
+}
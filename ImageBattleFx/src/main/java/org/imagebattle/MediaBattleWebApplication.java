@@ -27,12 +27,14 @@ import java.io.StringWriter;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
 import j2html.tags.ContainerTag;
@@ -55,16 +57,30 @@ public class MediaBattleWebApplication {
 
   private static final String FILES = "/files/";
 
+  private static final int RESULTS_PAGE_SIZE = 100;
+
   private static Logger log = LogManager.getLogger();
 
-  private final Map<String, ImageBattleFolder> folders = new HashMap<>();
+  private final Map<String, ImageBattleFolder> folders = new ConcurrentHashMap<>();
+
+  /**
+   * Folders that are still registering their files, with the progress as text.
+   */
+  private final Map<String, String> registrations = new ConcurrentHashMap<>();
 
   private final Map<File, MusicFile> musicFiles = new HashMap<>();
 
+  private final CentralStorage centralStorage;
+
   public MediaBattleWebApplication(CentralStorage centralStorage) {
+    this.centralStorage = centralStorage;
 
     centralStorage.folders().forEach(f -> folders.put(f.getName(), f));
 
+    // the next start reads the snapshots instead of querying every folder from the database
+    Runtime.getRuntime().addShutdownHook(
+        new Thread(() -> folders.values().forEach(ImageBattleFolder::saveSnapshot)));
+
     /*
      * Folder = Directory with a media type and path. The folder should have a name that is the url.
      */
@@ -83,6 +99,8 @@ public class MediaBattleWebApplication {
 
     handleReset();
 
+    handleUndo();
+
     Spark.get("/style/:name",
         (request, response) -> getResource("/style/" + request.params("name")));
 
@@ -99,10 +117,21 @@ public class MediaBattleWebApplication {
       MediaType mediaType = MediaType.valueOf(mediaTypeString);
       File dirFile = new File(directory);
       if (dirFile.isDirectory()) {
-        ImageBattleFolder f = new ImageBattleFolder(centralStorage, dirFile, mediaType, isRecursive,
-            folderName);
-        folders.put(folderName, f);
-        centralStorage.addFolder(f);
+        // big folders take minutes to hash, the folders view shows the progress meanwhile
+        registrations.put(folderName, "scanning");
+        new Thread(() -> {
+          try {
+            ImageBattleFolder f = new ImageBattleFolder(centralStorage, dirFile, mediaType,
+                isRecursive, folderName,
+                (registered, total) -> registrations.put(folderName, registered + " / " + total));
+            folders.put(folderName, f);
+            centralStorage.addFolder(f);
+          } catch (RuntimeException e) {
+            log.catching(e);
+          } finally {
+            registrations.remove(folderName);
+          }
+        }, "register " + folderName).start();
         return foldersView();
 
       }
@@ -110,16 +139,56 @@ public class MediaBattleWebApplication {
       return getResource("/folders_add.html");
     });
 
-    // result list
+    // result list, one page at a time
     Spark.get("/results/:folder", (request, result) -> {
       String folderName = request.params("folder");
       ImageBattleFolder folder = folders.get(folderName);
-      boolean image = MediaType.IMAGE.equals(folder.getMediaType());
-      return image ? imageResultView(folderName, folder)
-          : audioResultView(folderName, folder);
+      int page = Optional.ofNullable(request.queryParams("page"))//
+          .map(Integer::parseInt)//
+          .orElse(0);
+      return resultView(folderName, folder, Math.max(0, page));
     });
   }
 
+  /**
+   * The ranking is computed by the database, so a page of a big folder does not walk the graph.
+   * Only the files of the page are checked for existence, so a page with deleted files is shorter
+   * and their places are skipped. Ignored files follow on the last page. The user should see them to maybe un-ignore or delete
+   * them.
+   */
+  private String resultView(String folderName, ImageBattleFolder folder, int page) {
+    File directory = folder.getDirectory();
+    MediaType mediaType = folder.getMediaType();
+    boolean recursive = folder.isRecursive();
+    // one more than shown tells whether there is a next page
+    List<ResultListEntry> entries = centralStorage.readRanking(directory, mediaType, recursive,
+        RESULTS_PAGE_SIZE + 1, page * RESULTS_PAGE_SIZE);
+    boolean lastPage = entries.size() <= RESULTS_PAGE_SIZE;
+    List<ResultListEntry> shown = new ArrayList<>(
+        entries.subList(0, Math.min(entries.size(), RESULTS_PAGE_SIZE)));
+    shown.removeIf(entry -> !entry.file.exists());
+    if (lastPage) {
+      centralStorage.readIgnoreFile(directory, mediaType, recursive).stream()//
+          .filter(File::exists)//
+          .sorted()//
+          .map(file -> {
+            ResultListEntry entry = new ResultListEntry();
+            entry.file = file;
+            entry.ignored = true;
+            return entry;
+          })//
+          .forEach(shown::add);
+    }
+
+    DomContent pages = div().with(
+        page > 0 ? a("Previous").withHref("/results/" + folderName + "?page=" + (page - 1))
+            : span(),
+        lastPage ? span() : a("Next").withHref("/results/" + folderName + "?page=" + (page + 1)));
+
+    return MediaType.IMAGE.equals(mediaType) ? imageResultView(folderName, shown, pages)
+        : audioResultView(folderName, shown, pages);
+  }
+
   private ContainerTag foldersView() {
     return html().with(
         head()
@@ -143,7 +212,9 @@ public class MediaBattleWebApplication {
                             td(entry.getValue().getMediaType().name()),
                             td(String.valueOf(entry.getValue().isRecursive())),
                             td().with(a("Battle").withHref("/battle/" + entry.getKey())),
-                            td().with(a("Results").withHref("/results/" + entry.getKey()))))))));
+                            td().with(a("Results").withHref("/results/" + entry.getKey())))))),
+            each(registrations.entrySet(),
+                entry -> div(entry.getKey() + ": " + entry.getValue() + " files registered"))));
   }
 
   private void handleDecision() {
@@ -192,6 +263,21 @@ public class MediaBattleWebApplication {
     });
   }
 
+  private void handleUndo() {
+    Spark.post("/undo/:folder", (request, result) -> {
+      String folderName = request.params("folder");
+      ImageBattleFolder folder = folders.get(folderName);
+      int count = Optional.ofNullable(request.queryParams("count"))//
+          .map(Integer::parseInt)//
+          .orElse(1);
+      folder.undo(count);
+
+      result.redirect("/battle/" + folderName);
+
+      return result;
+    });
+  }
+
   private void hostFiles() {
     Spark.get(FILES + ":folder/*",
         (request, result) -> Optional.of(request.params("folder"))
@@ -221,7 +307,7 @@ public class MediaBattleWebApplication {
       return folder.getNextToCompare()
           .map(pair -> image ? imageBattle(pair, folderName, directory)
               : audioBattle(pair, folderName, directory))
-          .orElseGet(() -> audioResultView(folderName, folder));
+          .orElseGet(() -> resultView(folderName, folder, 0));
     });
   }
 
@@ -232,14 +318,9 @@ public class MediaBattleWebApplication {
 
   }
 
-  private String audioResultView(String folderName, ImageBattleFolder folder) {
+  private String audioResultView(String folderName, List<ResultListEntry> entries,
+      DomContent pages) {
     log.debug("start");
-    // System.err.println(folder.jsonGraph());
-
-    String directory = "D:\\tech\\graphviz\\";
-    String fileName = folderName;
-
-    folder.writeGraphImage(directory, fileName);
 
     String result = html().with(
         head().with(
@@ -258,7 +339,7 @@ public class MediaBattleWebApplication {
                     th("Artist"),
                     th("File Name")),
                 tbody().with(
-                    each(folder.getResultList(), entry -> {
+                    each(entries, entry -> {
                       MusicFile musicFile = musicFiles.computeIfAbsent(entry.file,
                           MusicFile::create);
                       return tr().with(
@@ -269,7 +350,8 @@ public class MediaBattleWebApplication {
                           td(String.valueOf(musicFile.getAlbum())),
                           td(String.valueOf(musicFile.getArtist())),
                           td(String.valueOf(entry.file.getName())));
-                    })))))
+                    })),
+            pages))
         .render();
 
     log.debug("end");
@@ -278,19 +360,14 @@ public class MediaBattleWebApplication {
 
   }
 
-  private String imageResultView(String folderName, ImageBattleFolder folder) {
+  private String imageResultView(String folderName, List<ResultListEntry> entries,
+      DomContent pages) {
     log.debug("start");
-    // System.err.println(folder.jsonGraph());
-
-    String directory = "D:\\tech\\graphviz\\";
-    String fileName = folderName;
-
-    folder.writeGraphImage(directory, fileName);
 
     Function<ResultListEntry, DomContent> entryToResultViewTile = entry -> {
       return div().attr("title", entry.file.getName())
           .with(
-              span(String.valueOf(entry.place)).withClass("rank"),
+              span(entry.ignored ? "ignored" : String.valueOf(entry.place)).withClass("rank"),
               span(entry.wins + " : " + entry.loses).withClass("winloss"),
               form()
                   .withAction("/reset/" + folderName + "/" + entry.file.getName())
@@ -305,8 +382,12 @@ public class MediaBattleWebApplication {
             link().withHref("/style/image_results.css").withRel("stylesheet").withType("text/css")),
         body().with(
             a("Battle").withHref("/battle/" + folderName),
-            each(folder.getResultList(), entryToResultViewTile)//
-        )//
+            form()
+                .withAction("/undo/" + folderName)
+                .withMethod("post")
+                .with(input().withType("submit").withValue("Undo last decision")),
+            each(entries, entryToResultViewTile), //
+            pages)//
     ).render();
 
     log.debug("end");
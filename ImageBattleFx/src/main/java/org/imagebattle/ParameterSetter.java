@@ -0,0 +1,19 @@
+package org.imagebattle;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * {@link FunctionalInterface} to be used by {@link Database}.
+ * 
+ * @author KoaGex
+ *
+ * @param <T>
+ *          Sets the parameters of a {@link PreparedStatement} from any Object you want.
+ */
+@FunctionalInterface
+public interface ParameterSetter<T> {
+
+  public void set(PreparedStatement statement, T value) throws SQLException;
+
+}
@@ -0,0 +1,229 @@
+package org.imagebattle;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Order statistics over the win lose difference of the ids of a {@link ReachabilityMatrix}. Rank 0
+ * is the id with the biggest difference.
+ *
+ * <p>
+ * Every possible difference has a bucket with the ids that currently have it. A Fenwick tree over
+ * the bucket sizes answers how many ids are ranked before a bucket. A decision only moves two ids
+ * into a neighbour bucket, so keeping the index up to date costs two tree updates instead of
+ * sorting all vertices again. Within a bucket the order is arbitrary.
+ * </p>
+ *
+ * @author KoaGex
+ *
+ */
+final class RankIndex implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Biggest difference that fits. The bucket of difference d has the index offset - d.
+   */
+  private int offset = -1;
+
+  /**
+   * 1-based Fenwick tree over the bucket sizes.
+   */
+  private int[] tree = new int[1];
+
+  private int[][] buckets = new int[0][];
+  private int[] bucketSizes = new int[0];
+
+  private int[] scores = new int[0];
+
+  /**
+   * Position of each id within its bucket or -1 if the id is not indexed.
+   */
+  private int[] positions = new int[0];
+
+  private int size = 0;
+
+  /**
+   * Makes room for ids smaller than capacity. Their difference can be at most capacity - 1.
+   */
+  void ensureCapacity(int capacity) {
+    if (capacity <= positions.length) {
+      return;
+    }
+    int oldOffset = offset;
+    int[][] oldBuckets = buckets;
+    int[] oldBucketSizes = bucketSizes;
+
+    offset = capacity - 1;
+    int bucketCount = 2 * capacity - 1;
+    buckets = new int[bucketCount][];
+    bucketSizes = new int[bucketCount];
+    scores = Arrays.copyOf(scores, capacity);
+    int oldLength = positions.length;
+    positions = Arrays.copyOf(positions, capacity);
+    Arrays.fill(positions, oldLength, capacity, -1);
+
+    int shift = offset - oldOffset;
+    for (int b = 0; b < oldBuckets.length; b++) {
+      buckets[b + shift] = oldBuckets[b];
+      bucketSizes[b + shift] = oldBucketSizes[b];
+    }
+
+    // linear Fenwick construction
+    tree = new int[bucketCount + 1];
+    for (int i = 1; i <= bucketCount; i++) {
+      tree[i] += bucketSizes[i - 1];
+      int parent = i + (i & -i);
+      if (parent <= bucketCount) {
+        tree[parent] += tree[i];
+      }
+    }
+  }
+
+  /**
+   * Indexes a new id with difference 0.
+   */
+  void add(int id) {
+    scores[id] = 0;
+    insert(id);
+    size++;
+  }
+
+  void remove(int id) {
+    delete(id);
+    positions[id] = -1;
+    size--;
+  }
+
+  /**
+   * Moves the id by delta within the ranking.
+   */
+  void change(int id, int delta) {
+    delete(id);
+    scores[id] += delta;
+    insert(id);
+  }
+
+  int size() {
+    return size;
+  }
+
+  int score(int id) {
+    return scores[id];
+  }
+
+  /**
+   * @return 0 for the best id.
+   */
+  int rankOf(int id) {
+    return prefixSize(bucket(scores[id])) + positions[id];
+  }
+
+  /**
+   * @throws IndexOutOfBoundsException
+   *           if rank is negative or not smaller than {@link #size()}.
+   */
+  int idAtRank(int rank) {
+    if (rank < 0 || rank >= size) {
+      throw new IndexOutOfBoundsException("rank: " + rank + ", size: " + size);
+    }
+    int bucket = 0;
+    int remaining = rank + 1;
+    for (int step = Integer.highestOneBit(bucketSizes.length); step > 0; step >>= 1) {
+      int next = bucket + step;
+      if (next <= bucketSizes.length && tree[next] < remaining) {
+        bucket = next;
+        remaining -= tree[next];
+      }
+    }
+    return buckets[bucket][remaining - 1];
+  }
+
+  /**
+   * @return The ids with this difference. Empty if the difference is out of range.
+   */
+  int[] idsWithScore(int score) {
+    int bucket = bucket(score);
+    if (bucket < 0 || bucket >= bucketSizes.length || bucketSizes[bucket] == 0) {
+      return new int[0];
+    }
+    return Arrays.copyOf(buckets[bucket], bucketSizes[bucket]);
+  }
+
+  /**
+   * @return The difference that most ids have. Ties go to the better difference.
+   */
+  int mostCommonScore() {
+    int best = 0;
+    for (int b = 1; b < bucketSizes.length; b++) {
+      if (bucketSizes[b] > bucketSizes[best]) {
+        best = b;
+      }
+    }
+    return offset - best;
+  }
+
+  /**
+   * @return All ids from best to worst.
+   */
+  int[] ranking() {
+    int[] ranking = new int[size];
+    int i = 0;
+    for (int b = 0; b < bucketSizes.length; b++) {
+      if (bucketSizes[b] > 0) {
+        System.arraycopy(buckets[b], 0, ranking, i, bucketSizes[b]);
+        i += bucketSizes[b];
+      }
+    }
+    return ranking;
+  }
+
+  private int bucket(int score) {
+    return offset - score;
+  }
+
+  private void insert(int id) {
+    int bucket = bucket(scores[id]);
+    int[] ids = buckets[bucket];
+    int bucketSize = bucketSizes[bucket];
+    if (ids == null || ids.length == bucketSize) {
+      ids = ids == null ? new int[4] : Arrays.copyOf(ids, bucketSize * 2);
+      buckets[bucket] = ids;
+    }
+    ids[bucketSize] = id;
+    positions[id] = bucketSize;
+    bucketSizes[bucket]++;
+    updateTree(bucket, 1);
+  }
+
+  /**
+   * Fills the gap with the last id of the bucket.
+   */
+  private void delete(int id) {
+    int bucket = bucket(scores[id]);
+    int[] ids = buckets[bucket];
+    int last = --bucketSizes[bucket];
+    int moved = ids[last];
+    ids[positions[id]] = moved;
+    positions[moved] = positions[id];
+    updateTree(bucket, -1);
+  }
+
+  private void updateTree(int bucket, int delta) {
+    for (int i = bucket + 1; i < tree.length; i += i & -i) {
+      tree[i] += delta;
+    }
+  }
+
+  /**
+   * @return Number of ids in the buckets before the given one.
+   */
+  private int prefixSize(int bucket) {
+    int sum = 0;
+    for (int i = bucket; i > 0; i -= i & -i) {
+      sum += tree[i];
+    }
+    return sum;
+  }
+
+}
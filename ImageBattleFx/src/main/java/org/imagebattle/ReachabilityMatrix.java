@@ -0,0 +1,508 @@
+package org.imagebattle;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Int indexed adjacency of a {@link TransitiveDiGraph}. Every vertex gets a dense id and two rows
+ * of bits: one for the files it won against and one for the files it lost against. Because the
+ * graph is transitive these rows also answer reachability questions.
+ *
+ * <p>
+ * Ids of removed vertices are reused so the rows stay as short as the biggest vertex count the
+ * graph ever had.
+ * </p>
+ *
+ * @author KoaGex
+ *
+ */
+final class ReachabilityMatrix implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final Map<File, Integer> ids = new LinkedHashMap<>();
+
+  private File[] files = new File[0];
+
+  /**
+   * wins[a] has bit b set when a won against b.
+   */
+  private long[][] wins = new long[0][];
+
+  /**
+   * losses[b] has bit a set when b lost against a.
+   */
+  private long[][] losses = new long[0][];
+
+  /**
+   * Bits of all ids that currently belong to a vertex.
+   */
+  private long[] alive = new long[0];
+
+  /**
+   * Number of set bits in each wins row. Kept up to date so degrees are plain reads.
+   */
+  private int[] winCounts = new int[0];
+
+  /**
+   * Number of set bits in each losses row.
+   */
+  private int[] lossCounts = new int[0];
+
+  /**
+   * Number of set bits in all wins rows together.
+   */
+  private long edgeCount = 0;
+
+  /**
+   * Ranking by win lose difference, updated together with the counts.
+   */
+  private final RankIndex ranks = new RankIndex();
+
+  private int[] freeIds = new int[0];
+  private int freeIdCount = 0;
+
+  /**
+   * All ids ever handed out are smaller than this.
+   */
+  private int idLimit = 0;
+
+  /**
+   * @return The id of the given file or -1 if it is not a vertex.
+   */
+  int id(File file) {
+    Integer id = ids.get(file);
+    return id == null ? -1 : id;
+  }
+
+  File file(int id) {
+    return files[id];
+  }
+
+  /**
+   * @return Upper bound (exclusive) of all ids in use.
+   */
+  int idLimit() {
+    return idLimit;
+  }
+
+  /**
+   * @return Unmodifiable live view of all vertices in the order they were added.
+   */
+  Set<File> files() {
+    return Collections.unmodifiableSet(ids.keySet());
+  }
+
+  int vertexCount() {
+    return ids.size();
+  }
+
+  /**
+   * @return The id of the file. A new one is assigned if the file was not yet known.
+   */
+  int add(File file) {
+    Integer existing = ids.get(file);
+    if (existing != null) {
+      return existing;
+    }
+
+    int id;
+    if (freeIdCount > 0) {
+      id = freeIds[--freeIdCount];
+    } else {
+      id = idLimit++;
+      ensureCapacity(idLimit);
+    }
+    ids.put(file, id);
+    files[id] = file;
+    alive[id >>> 6] |= 1L << id;
+    ranks.add(id);
+    return id;
+  }
+
+  /**
+   * Removes the vertex and all bits that point to it from other rows.
+   */
+  void remove(File file) {
+    Integer boxedId = ids.remove(file);
+    if (boxedId == null) {
+      return;
+    }
+    int id = boxedId;
+    long[] winRow = wins[id];
+    for (int loser = nextSetBit(winRow, 0); loser >= 0; loser = nextSetBit(winRow, loser + 1)) {
+      losses[loser][id >>> 6] &= ~(1L << id);
+      lossCounts[loser]--;
+      ranks.change(loser, 1);
+    }
+    long[] lossRow = losses[id];
+    for (int winner = nextSetBit(lossRow, 0); winner >= 0; winner = nextSetBit(lossRow,
+        winner + 1)) {
+      wins[winner][id >>> 6] &= ~(1L << id);
+      winCounts[winner]--;
+      ranks.change(winner, -1);
+    }
+    edgeCount -= winCounts[id] + lossCounts[id];
+    winCounts[id] = 0;
+    lossCounts[id] = 0;
+    Arrays.fill(winRow, 0L);
+    Arrays.fill(lossRow, 0L);
+    alive[id >>> 6] &= ~(1L << id);
+    files[id] = null;
+    ranks.remove(id);
+
+    if (freeIdCount == freeIds.length) {
+      freeIds = Arrays.copyOf(freeIds, Math.max(8, freeIds.length * 2));
+    }
+    freeIds[freeIdCount++] = id;
+  }
+
+  boolean contains(int winner, int loser) {
+    return (wins[winner][loser >>> 6] & (1L << loser)) != 0;
+  }
+
+  boolean containsAny(int a, int b) {
+    return contains(a, b) || contains(b, a);
+  }
+
+  void set(int winner, int loser) {
+    if (contains(winner, loser)) {
+      return;
+    }
+    wins[winner][loser >>> 6] |= 1L << loser;
+    losses[loser][winner >>> 6] |= 1L << winner;
+    winCounts[winner]++;
+    lossCounts[loser]++;
+    edgeCount++;
+    ranks.change(winner, 1);
+    ranks.change(loser, -1);
+  }
+
+  /**
+   * Sets many edges at once without looking at transitivity. The counts and the ranking are updated
+   * once per vertex afterwards instead of once per edge.
+   * 
+   * @param edges
+   *          Pairs of winner and loser ids stored one after the other like in
+   *          {@link #missingClosure(int, int)}. Pairs of the same id are skipped.
+   */
+  void setAll(int[] edges) {
+    for (int i = 0; i < edges.length; i += 2) {
+      int winner = edges[i];
+      int loser = edges[i + 1];
+      if (winner != loser) {
+        wins[winner][loser >>> 6] |= 1L << loser;
+        losses[loser][winner >>> 6] |= 1L << winner;
+      }
+    }
+
+    edgeCount = 0;
+    for (int id = nextSetBit(alive, 0); id >= 0; id = nextSetBit(alive, id + 1)) {
+      int oldScore = winCounts[id] - lossCounts[id];
+      winCounts[id] = bitCount(wins[id]);
+      lossCounts[id] = bitCount(losses[id]);
+      edgeCount += winCounts[id];
+      int score = winCounts[id] - lossCounts[id];
+      if (score != oldScore) {
+        ranks.change(id, score - oldScore);
+      }
+    }
+  }
+
+  void clear(int winner, int loser) {
+    if (!contains(winner, loser)) {
+      return;
+    }
+    wins[winner][loser >>> 6] &= ~(1L << loser);
+    losses[loser][winner >>> 6] &= ~(1L << winner);
+    winCounts[winner]--;
+    lossCounts[loser]--;
+    edgeCount--;
+    ranks.change(winner, -1);
+    ranks.change(loser, 1);
+  }
+
+  /**
+   * Computes what adding winner -> loser means for a transitive graph: The winner and everything
+   * that won against it now also wins against the loser and everything the loser won against. This
+   * is the product of two rows, so it is done word by word on the bits instead of walking edges.
+   * 
+   * <p>
+   * Nothing is modified. The caller decides if and how the edges are added.
+   * </p>
+   * 
+   * @return Pairs of winner and loser ids of all edges that are not set yet, stored one after the
+   *         other: [winner0, loser0, winner1, loser1, ...]. The pair winner, loser comes first.
+   */
+  int[] missingClosure(int winner, int loser) {
+    int words = alive.length;
+    long[] above = Arrays.copyOf(losses[winner], words);
+    above[winner >>> 6] |= 1L << winner;
+    long[] below = Arrays.copyOf(wins[loser], words);
+    below[loser >>> 6] |= 1L << loser;
+
+    int[] pairs = new int[16];
+    int pairCount = 0;
+    pairs[pairCount++] = winner;
+    pairs[pairCount++] = loser;
+    for (int a = nextSetBit(above, 0); a >= 0; a = nextSetBit(above, a + 1)) {
+      long[] row = wins[a];
+      for (int w = 0; w < words; w++) {
+        long added = below[w] & ~row[w];
+        while (added != 0) {
+          int d = (w << 6) + Long.numberOfTrailingZeros(added);
+          added &= added - 1;
+          if (a == d || (a == winner && d == loser)) {
+            continue;
+          }
+          if (pairCount == pairs.length) {
+            pairs = Arrays.copyOf(pairs, pairs.length * 2);
+          }
+          pairs[pairCount++] = a;
+          pairs[pairCount++] = d;
+        }
+      }
+    }
+    return Arrays.copyOf(pairs, pairCount);
+  }
+
+  /**
+   * @return true if adding winner -> loser would add more than this single edge because the
+   *         winner is missing a win of the loser or the loser a loss of the winner.
+   */
+  boolean impliesMoreEdges(int winner, int loser) {
+    long[] winnerWins = wins[winner];
+    long[] loserWins = wins[loser];
+    long[] winnerLosses = losses[winner];
+    long[] loserLosses = losses[loser];
+    for (int w = 0; w < alive.length; w++) {
+      if ((loserWins[w] & ~winnerWins[w]) != 0 || (winnerLosses[w] & ~loserLosses[w]) != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return true if no edge implies an edge that is missing.
+   */
+  boolean isTransitive() {
+    for (int a = nextSetBit(alive, 0); a >= 0; a = nextSetBit(alive, a + 1)) {
+      long[] winRow = wins[a];
+      for (int b = nextSetBit(winRow, 0); b >= 0; b = nextSetBit(winRow, b + 1)) {
+        if (impliesMoreEdges(a, b)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Audit for pairs that won against each other. A transitive graph has a cycle exactly when it has
+   * such a pair, so one AND of the wins and losses row per vertex finds all of them.
+   * 
+   * @return Pairs a, b with a &lt; b stored one after the other like in
+   *         {@link #missingClosure(int, int)}.
+   */
+  int[] contradictions() {
+    int[] pairs = new int[0];
+    int pairCount = 0;
+    for (int a = nextSetBit(alive, 0); a >= 0; a = nextSetBit(alive, a + 1)) {
+      long[] winRow = wins[a];
+      long[] lossRow = losses[a];
+      // only bigger ids, otherwise every pair would be reported twice
+      for (int w = (a + 1) >>> 6; w < alive.length; w++) {
+        long both = winRow[w] & lossRow[w];
+        if (w == (a + 1) >>> 6) {
+          both &= -1L << (a + 1);
+        }
+        while (both != 0) {
+          if (pairCount == pairs.length) {
+            pairs = Arrays.copyOf(pairs, Math.max(16, pairs.length * 2));
+          }
+          pairs[pairCount++] = a;
+          pairs[pairCount++] = (w << 6) + Long.numberOfTrailingZeros(both);
+          both &= both - 1;
+        }
+      }
+    }
+    return Arrays.copyOf(pairs, pairCount);
+  }
+
+  /**
+   * Transitive reduction: Keeps only the edges a -> b for which there is no c with a -> c -> b. For
+   * the Hasse diagram of a battle that is mostly a chain this is about one edge per vertex.
+   * 
+   * <p>
+   * Per vertex its losers are visited in order of their loss count. A loser that is closer to the
+   * vertex lost less often, so when a loser is reached that is not yet beaten by an earlier covering
+   * loser, it is covering itself. Each covering loser adds its wins row to the beaten bits. This
+   * costs sorting the edges plus one row OR per covering edge instead of one check per edge and
+   * vertex.
+   * </p>
+   * 
+   * @return Pairs of winner and loser ids stored one after the other like in
+   *         {@link #missingClosure(int, int)}.
+   */
+  int[] coveringEdges() {
+    int words = alive.length;
+    long[] beaten = new long[words];
+    long[] losersByLossCount = new long[16];
+    int[] pairs = new int[16];
+    int pairCount = 0;
+
+    for (int a = nextSetBit(alive, 0); a >= 0; a = nextSetBit(alive, a + 1)) {
+      long[] winRow = wins[a];
+      int loserCount = 0;
+      if (losersByLossCount.length < winCounts[a]) {
+        losersByLossCount = new long[winCounts[a]];
+      }
+      for (int b = nextSetBit(winRow, 0); b >= 0; b = nextSetBit(winRow, b + 1)) {
+        losersByLossCount[loserCount++] = ((long) lossCounts[b] << 32) | b;
+      }
+      Arrays.sort(losersByLossCount, 0, loserCount);
+
+      Arrays.fill(beaten, 0L);
+      for (int i = 0; i < loserCount; i++) {
+        int b = (int) losersByLossCount[i];
+        if ((beaten[b >>> 6] & (1L << b)) != 0) {
+          continue;
+        }
+        if (pairCount == pairs.length) {
+          pairs = Arrays.copyOf(pairs, pairs.length * 2);
+        }
+        pairs[pairCount++] = a;
+        pairs[pairCount++] = b;
+        long[] coveredByB = wins[b];
+        for (int w = 0; w < words; w++) {
+          beaten[w] |= coveredByB[w];
+        }
+      }
+    }
+    return Arrays.copyOf(pairs, pairCount);
+  }
+
+  int winCount(int id) {
+    return winCounts[id];
+  }
+
+  int lossCount(int id) {
+    return lossCounts[id];
+  }
+
+  long edgeCount() {
+    return edgeCount;
+  }
+
+  /**
+   * @return How many edges a complete transitive tournament of all vertices would have.
+   */
+  long maxEdgeCount() {
+    long vertexCount = ids.size();
+    return vertexCount * (vertexCount - 1) / 2;
+  }
+
+  /**
+   * @return How many pairs of vertices have not been compared yet.
+   */
+  long missingPairCount() {
+    return maxEdgeCount() - edgeCount;
+  }
+
+  /**
+   * @return The ranking by win lose difference. Callers must only read from it.
+   */
+  RankIndex ranks() {
+    return ranks;
+  }
+
+  /**
+   * @return The live row. Callers must not modify it.
+   */
+  long[] winRow(int id) {
+    return wins[id];
+  }
+
+  /**
+   * @return The live row. Callers must not modify it.
+   */
+  long[] lossRow(int id) {
+    return losses[id];
+  }
+
+  /**
+   * @return The live row of all ids in use. Callers must not modify it.
+   */
+  long[] aliveRow() {
+    return alive;
+  }
+
+  private void ensureCapacity(int idCount) {
+    int capacity = files.length;
+    if (idCount <= capacity) {
+      return;
+    }
+    int newCapacity = Math.max(64, capacity);
+    while (newCapacity < idCount) {
+      newCapacity *= 2;
+    }
+    int newWords = newCapacity >>> 6;
+
+    files = Arrays.copyOf(files, newCapacity);
+    alive = Arrays.copyOf(alive, newWords);
+    winCounts = Arrays.copyOf(winCounts, newCapacity);
+    lossCounts = Arrays.copyOf(lossCounts, newCapacity);
+    wins = Arrays.copyOf(wins, newCapacity);
+    losses = Arrays.copyOf(losses, newCapacity);
+    for (int i = 0; i < newCapacity; i++) {
+      wins[i] = wins[i] == null ? new long[newWords] : Arrays.copyOf(wins[i], newWords);
+      losses[i] = losses[i] == null ? new long[newWords] : Arrays.copyOf(losses[i], newWords);
+    }
+    ranks.ensureCapacity(newCapacity);
+  }
+
+  /**
+   * @return Index of the set bit that has rank set bits below it within the word.
+   */
+  static int selectBit(long word, int rank) {
+    long remaining = word;
+    for (int i = 0; i < rank; i++) {
+      remaining &= remaining - 1;
+    }
+    return Long.numberOfTrailingZeros(remaining);
+  }
+
+  private static int bitCount(long[] row) {
+    int count = 0;
+    for (long word : row) {
+      count += Long.bitCount(word);
+    }
+    return count;
+  }
+
+  /**
+   * @return Index of the first set bit at or after fromIndex or -1 if there is none.
+   */
+  static int nextSetBit(long[] row, int fromIndex) {
+    int wordIndex = fromIndex >>> 6;
+    if (wordIndex >= row.length) {
+      return -1;
+    }
+    long word = row[wordIndex] & (-1L << fromIndex);
+    while (word == 0) {
+      wordIndex++;
+      if (wordIndex == row.length) {
+        return -1;
+      }
+      word = row[wordIndex];
+    }
+    return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+  }
+
+}
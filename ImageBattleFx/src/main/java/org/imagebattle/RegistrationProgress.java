@@ -0,0 +1,24 @@
+package org.imagebattle;
+
+/**
+ * {@link FunctionalInterface} to follow {@link Database#registerFiles(java.util.Collection,
+ * RegistrationProgress)}. It may be called from a worker thread.
+ * 
+ * @author KoaGex
+ *
+ */
+@FunctionalInterface
+public interface RegistrationProgress {
+
+  public static final RegistrationProgress NONE = (registered, total) -> {
+  };
+
+  /**
+   * @param registered
+   *          Number of files that are stored already.
+   * @param total
+   *          Number of files that are registered.
+   */
+  public void update(int registered, int total);
+
+}
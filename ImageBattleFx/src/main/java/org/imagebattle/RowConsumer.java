@@ -0,0 +1,18 @@
+package org.imagebattle;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * {@link FunctionalInterface} to be used by {@link Database}. Reads one row of a {@link ResultSet}
+ * while it is the current row.
+ * 
+ * @author KoaGex
+ *
+ */
+@FunctionalInterface
+public interface RowConsumer {
+
+  public void accept(ResultSet resultSet) throws SQLException;
+
+}
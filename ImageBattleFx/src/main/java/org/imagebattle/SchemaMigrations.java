@@ -0,0 +1,383 @@
+package org.imagebattle;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import javax.sql.DataSource;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Upgrades the schema of a {@link Database} step by step. The number of applied migrations is
+ * stored in the sqlite header field user_version. A new database starts with the tables of version
+ * 0 and runs through the same migrations as an old one, so both end up with the same schema.
+ *
+ * <p>
+ * Never change a migration that was released. Add a new one at the end of {@link #MIGRATIONS}.
+ * Table names are written out because a migration describes the schema at the time it was written.
+ * </p>
+ *
+ * @author KoaGex
+ *
+ */
+final class SchemaMigrations {
+
+  private static final Logger LOG = LogManager.getLogger();
+
+  /**
+   * Migration i brings the schema from version i to version i + 1.
+   */
+  private static final List<Migration> MIGRATIONS = Arrays.asList(//
+      SchemaMigrations::indexes, //
+      SchemaMigrations::parentDirectories, //
+      statements(fileSignatures()), //
+      SchemaMigrations::fixedWidthHashes, //
+      statements(fileKeys()), //
+      SchemaMigrations::quickHashes, //
+      statements(directoryRevisions()));
+
+  @FunctionalInterface
+  private interface Migration {
+    void apply(Connection connection) throws SQLException;
+  }
+
+  private SchemaMigrations() {
+  }
+
+  /**
+   * @return The version a database has after {@link #migrate(DataSource)}.
+   */
+  static int latestVersion() {
+    return MIGRATIONS.size();
+  }
+
+  /**
+   * Runs all migrations that were not applied yet. Each one runs in its own transaction together
+   * with the version update, so a failed migration leaves the database unchanged.
+   */
+  static void migrate(DataSource dataSource) {
+    try (Connection connection = dataSource.getConnection()) {
+      int version = version(connection);
+      for (int next = version; next < MIGRATIONS.size(); next++) {
+        LOG.info("migrate schema from version {} to {}", next, next + 1);
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+          MIGRATIONS.get(next).apply(connection);
+          statement.execute("PRAGMA user_version = " + (next + 1));
+          connection.commit();
+        } catch (SQLException e) {
+          connection.rollback();
+          throw e;
+        } finally {
+          connection.setAutoCommit(true);
+        }
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException("schema migration error", e);
+    }
+  }
+
+  static int version(Connection connection) throws SQLException {
+    try (Statement statement = connection.createStatement();
+        ResultSet resultSet = statement.executeQuery("PRAGMA user_version")) {
+      return resultSet.next() ? resultSet.getInt(1) : 0;
+    }
+  }
+
+  private static Migration statements(List<String> sqls) {
+    return connection -> {
+      try (Statement statement = connection.createStatement()) {
+        for (String sql : sqls) {
+          LOG.debug(sql);
+          statement.execute(sql);
+        }
+      }
+    };
+  }
+
+  /**
+   * Version 1: Lookups by path and by hash, deleting the edges of a file and reading the edges of
+   * a folder used full table scans. Duplicates are merged first, otherwise the unique indexes could
+   * not be created. Edges of media objects that turn out to be the same are moved to the survivor.
+   * The edges table is rebuilt because sqlite can not add a primary key to an existing table. The
+   * rebuild keeps the insertion order, {@link TransitiveDiGraph#addEdgesBulk(List, int[])} replays
+   * contradicting stored edges oldest first.
+   *
+   * <p>
+   * Short hashes may collide, see {@link #fixedWidthHashes(Connection)}. So they are hashed again
+   * before anything is merged. A short hash that is left has no existing file to compare, only the
+   * oldest media object keeps it and the others lose it instead of being merged.
+   * </p>
+   */
+  private static void indexes(Connection connection) throws SQLException {
+    splitShortHashes(connection);
+    statements(indexStatements()).apply(connection);
+  }
+
+  private static List<String> indexStatements() {
+    String survivor = "(select min(m2.id) from media_objects m1"
+        + " join media_objects m2 on m1.hash = m2.hash where m1.id = ";
+    return Arrays.asList(//
+        "update media_objects set hash = null where length(hash) < 64 and id not in"//
+            + " (select min(id) from media_objects where length(hash) < 64 group by hash)", //
+        "update files set media_object = " + survivor + "files.media_object)"//
+            + " where media_object in (select id from media_objects where hash is not null)", //
+        "update ignored set media_object = " + survivor + "ignored.media_object)"//
+            + " where media_object in (select id from media_objects where hash is not null)", //
+        "update edges set winner = ifnull(" + survivor + "edges.winner), winner),"//
+            + " loser = ifnull(" + survivor + "edges.loser), loser)", //
+        "delete from media_objects where hash is not null and id not in"//
+            + " (select min(id) from media_objects where hash is not null group by hash)", //
+        "delete from files where rowid not in"//
+            + " (select max(rowid) from files group by absolute_path)", //
+        "delete from ignored where rowid not in"//
+            + " (select min(rowid) from ignored group by media_object)", //
+        "create unique index media_objects_hash on media_objects(hash)", //
+        "create unique index files_absolute_path on files(absolute_path)", //
+        "create index files_media_object on files(media_object)", //
+        "create unique index ignored_media_object on ignored(media_object)", //
+        "create table edges_new (" //
+            + " winner INTEGER NOT NULL," //
+            + " loser INTEGER NOT NULL," //
+            + " PRIMARY KEY(winner, loser)," //
+            + " FOREIGN KEY(winner) REFERENCES media_objects(id)," //
+            + " FOREIGN KEY(loser) REFERENCES media_objects(id) )", //
+        "insert into edges_new select winner, loser from edges where winner != loser"//
+            + " group by winner, loser order by min(rowid)", //
+        "drop table edges", //
+        "alter table edges_new rename to edges", //
+        "create index edges_loser on edges(loser)");
+  }
+
+  /**
+   * Hashes every existing file of the media objects with a short hash. The first file gives its
+   * media object the full hash. Files with other content only shared the short hash by collision,
+   * they move to a media object of their own. The edges stay with the first file.
+   */
+  private static void splitShortHashes(Connection connection) throws SQLException {
+    Map<Long, List<String>> paths = new LinkedHashMap<>();
+    Map<Long, String> mediaTypes = new HashMap<>();
+    try (Statement statement = connection.createStatement();
+        ResultSet resultSet = statement.executeQuery("select m.id, f.absolute_path, m.media_type"
+            + " from media_objects m join files f on f.media_object = m.id"
+            + " where length(m.hash) < 64 order by f.rowid")) {
+      while (resultSet.next()) {
+        long id = resultSet.getLong(1);
+        String path = resultSet.getString(2);
+        List<String> files = paths.computeIfAbsent(id, key -> new ArrayList<>());
+        if (!files.contains(path) && new File(path).isFile()) {
+          files.add(path);
+          mediaTypes.put(id, resultSet.getString(3));
+        }
+      }
+    }
+    Map<String, CompletableFuture<String>> hashes = new HashMap<>();
+    paths.values().forEach(files -> files
+        .forEach(path -> hashes.put(path, HashingService.shared().hash(new File(path)))));
+    LOG.info("hash {} files again", hashes.size());
+
+    try (PreparedStatement updateHash = connection
+        .prepareStatement("update media_objects set hash = ? where id = ?");
+        PreparedStatement insert = connection
+            .prepareStatement("insert into media_objects (hash, media_type) values (?, ?)");
+        Statement lastId = connection.createStatement();
+        PreparedStatement moveFile = connection.prepareStatement(
+            "update files set media_object = ? where media_object = ? and absolute_path = ?")) {
+      for (Map.Entry<Long, List<String>> mediaObject : paths.entrySet()) {
+        long id = mediaObject.getKey();
+        // full hash to media object, the first one keeps the id
+        Map<String, Long> split = new HashMap<>();
+        for (String path : mediaObject.getValue()) {
+          String hash;
+          try {
+            hash = hashes.get(path).join();
+          } catch (CompletionException e) {
+            LOG.warn("could not hash {}", path, e.getCause());
+            continue;
+          }
+          if (split.isEmpty()) {
+            split.put(hash, id);
+            updateHash.setString(1, hash);
+            updateHash.setLong(2, id);
+            updateHash.executeUpdate();
+            continue;
+          }
+          Long target = split.get(hash);
+          if (target == null) {
+            insert.setString(1, hash);
+            insert.setString(2, mediaTypes.get(id));
+            insert.executeUpdate();
+            try (ResultSet resultSet = lastId.executeQuery("select last_insert_rowid()")) {
+              resultSet.next();
+              target = resultSet.getLong(1);
+            }
+            split.put(hash, target);
+            LOG.info("{} only shared a short hash with {}", path, mediaObject.getValue().get(0));
+          }
+          if (target != id) {
+            moveFile.setLong(1, target);
+            moveFile.setLong(2, id);
+            moveFile.setString(3, path);
+            moveFile.executeUpdate();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Version 2: The parent directory of each file, so the files directly inside a folder can be
+   * selected by the database. Sqlite has no function to cut off the file name, so existing rows
+   * are filled in here.
+   */
+  private static void parentDirectories(Connection connection) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("alter table files add column parent_directory TEXT");
+      Map<Long, String> paths = new HashMap<>();
+      try (ResultSet resultSet = statement.executeQuery("select rowid, absolute_path from files")) {
+        while (resultSet.next()) {
+          paths.put(resultSet.getLong(1), resultSet.getString(2));
+        }
+      }
+      try (PreparedStatement update = connection
+          .prepareStatement("update files set parent_directory = ? where rowid = ?")) {
+        for (Map.Entry<Long, String> path : paths.entrySet()) {
+          update.setString(1, new File(path.getValue()).getParent());
+          update.setLong(2, path.getKey());
+          update.addBatch();
+        }
+        update.executeBatch();
+      }
+      statement.execute("create index files_parent_directory on files(parent_directory)");
+    }
+  }
+
+  /**
+   * Version 3: Size and last modification time of each file when it was hashed. They tell whether
+   * the content has to be hashed again. Existing rows keep null until the file is registered again.
+   */
+  private static List<String> fileSignatures() {
+    return Arrays.asList(//
+        "alter table files add column size INTEGER", //
+        "alter table files add column modified INTEGER");
+  }
+
+  /**
+   * Version 4: Hashes used to drop the leading zero of each byte, so about seven of eight were
+   * shorter than 64 digits and could collide. The dropped zeros can not be restored, so one
+   * existing file of each such media object is hashed again. Media objects without an existing file
+   * keep the old hash. Databases that were migrated from version 0 were already hashed again by
+   * {@link #indexes(Connection)}.
+   */
+  private static void fixedWidthHashes(Connection connection) throws SQLException {
+    Map<Long, String> paths = existingFiles(connection, "select m.id, f.absolute_path"
+        + " from media_objects m join files f on f.media_object = m.id"
+        + " where length(m.hash) < 64 order by f.rowid");
+    LOG.info("hash {} files again", paths.size());
+    Map<Long, CompletableFuture<String>> hashes = new HashMap<>();
+    paths.forEach((id, path) -> hashes.put(id, HashingService.shared().hash(new File(path))));
+    try (PreparedStatement update = connection
+        .prepareStatement("update media_objects set hash = ? where id = ?")) {
+      for (Map.Entry<Long, String> path : paths.entrySet()) {
+        try {
+          update.setString(1, hashes.get(path.getKey()).join());
+        } catch (CompletionException e) {
+          LOG.warn("could not hash {}", path.getValue(), e.getCause());
+          continue;
+        }
+        update.setLong(2, path.getKey());
+        update.addBatch();
+      }
+      update.executeBatch();
+    }
+  }
+
+  /**
+   * Version 5: The file key, for example device and inode, so a renamed file is recognized without
+   * reading its content.
+   */
+  private static List<String> fileKeys() {
+    return Arrays.asList(//
+        "alter table files add column file_key TEXT", //
+        "create index files_file_key on files(file_key)");
+  }
+
+  /**
+   * Version 6: The {@link FileContentHash#quickHash()} of each media object. New files are
+   * identified by it and only hashed completely when it is shared. It is filled in from one
+   * existing file of each media object. Media objects without an existing file keep null, a new copy
+   * of their content gets a media object of its own.
+   */
+  private static void quickHashes(Connection connection) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("alter table media_objects add column quick_hash TEXT");
+      statement.execute("create index media_objects_quick_hash on media_objects(quick_hash)");
+    }
+    Map<Long, CompletableFuture<String>> hashes = new HashMap<>();
+    Map<Long, String> paths = existingFiles(connection,
+        "select m.id, f.absolute_path from media_objects m join files f on f.media_object = m.id"
+            + " order by f.rowid");
+    paths.forEach((id, path) -> hashes.put(id, HashingService.shared().quickHash(new File(path))));
+    LOG.info("fingerprint {} files", paths.size());
+    try (PreparedStatement update = connection
+        .prepareStatement("update media_objects set quick_hash = ? where id = ?")) {
+      for (Map.Entry<Long, String> path : paths.entrySet()) {
+        try {
+          update.setString(1, hashes.get(path.getKey()).join());
+        } catch (CompletionException e) {
+          LOG.warn("could not fingerprint {}", path.getValue(), e.getCause());
+          continue;
+        }
+        update.setLong(2, path.getKey());
+        update.addBatch();
+      }
+      update.executeBatch();
+    }
+  }
+
+  /**
+   * @param query
+   *          Selects media object id and path, preferred paths first.
+   * @return The first path of each media object that exists.
+   */
+  private static Map<Long, String> existingFiles(Connection connection, String query)
+      throws SQLException {
+    Map<Long, String> paths = new HashMap<>();
+    try (Statement statement = connection.createStatement();
+        ResultSet resultSet = statement.executeQuery(query)) {
+      while (resultSet.next()) {
+        long id = resultSet.getLong(1);
+        String path = resultSet.getString(2);
+        if (!paths.containsKey(id) && new File(path).isFile()) {
+          paths.put(id, path);
+        }
+      }
+    }
+    return paths;
+  }
+
+  /**
+   * Version 7: A revision per directory, so a snapshot of one folder stays valid while another
+   * folder changes. The triggers are created by the {@link Database} like the other revision
+   * triggers.
+   */
+  private static List<String> directoryRevisions() {
+    return Arrays.asList(//
+        "create table directory_revisions (directory TEXT PRIMARY KEY, counter INTEGER NOT NULL)",
+        "insert into directory_revisions select distinct parent_directory, 0 from files"
+            + " where parent_directory is not null");
+  }
+
+}
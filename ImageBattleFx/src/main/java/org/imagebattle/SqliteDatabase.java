@@ -1,25 +1,110 @@
 package org.imagebattle;
 
 import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.sqlite.JDBC;
 import org.sqlite.SQLiteDataSource;
 
 /**
+ * Keeps up to {@link SqlitePragmas#poolSize()} idle connections open. Closing a connection from
+ * {@link #getConnection()} hands it back instead of closing the file, so the pragmas only have to
+ * be applied once per physical connection.
+ *
  * @author Besitzer
  *
  */
-public class SqliteDatabase extends SQLiteDataSource {
+public class SqliteDatabase extends SQLiteDataSource implements AutoCloseable {
+
+  private static final Logger LOG = LogManager.getLogger();
+
+  private final SqlitePragmas pragmas;
+
+  private final BlockingQueue<Connection> idle;
+
+  private volatile boolean closed = false;
 
   /**
    * @param databaseFile
    */
   public SqliteDatabase(File databaseFile) {
+    this(databaseFile, SqlitePragmas.DEFAULT);
+  }
+
+  public SqliteDatabase(File databaseFile, SqlitePragmas pragmas) {
     super();
     if (databaseFile.isDirectory()) {
       throw new IllegalArgumentException("databaseFile must not be a directory file");
     }
     this.setUrl(JDBC.PREFIX + databaseFile.getAbsolutePath());
+    this.pragmas = pragmas;
+    idle = new ArrayBlockingQueue<>(Math.max(1, pragmas.poolSize()));
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    Connection connection = idle.poll();
+    if (connection == null || connection.isClosed()) {
+      connection = super.getConnection();
+      pragmas.apply(connection);
+      LOG.debug("opened connection with {}", pragmas);
+    }
+    return pooled(connection);
+  }
+
+  /**
+   * @return A view whose close method gives the connection back to the pool.
+   */
+  private Connection pooled(Connection connection) {
+    return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+        new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+          if ("close".equals(method.getName())) {
+            release(connection);
+            return null;
+          }
+          try {
+            return method.invoke(connection, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+        });
+  }
+
+  private void release(Connection connection) throws SQLException {
+    if (connection.isClosed()) {
+      return;
+    }
+    if (!connection.getAutoCommit()) {
+      // someone forgot to end the transaction, the next user must not see it
+      connection.rollback();
+      connection.setAutoCommit(true);
+    }
+    if (closed || pragmas.poolSize() == 0 || !idle.offer(connection)) {
+      connection.close();
+    }
+  }
+
+  /**
+   * Closes the idle connections. Connections that are in use are closed when they are given back.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    Connection connection;
+    while ((connection = idle.poll()) != null) {
+      try {
+        connection.close();
+      } catch (SQLException e) {
+        LOG.warn("could not close connection", e);
+      }
+    }
   }
 
 }
@@ -0,0 +1,128 @@
+package org.imagebattle;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Settings that {@link SqliteDatabase} applies to every connection it opens. Use
+ * {@link #DEFAULT} and change single values with the with methods.
+ *
+ * <p>
+ * The default uses write ahead logging. Readers then see the last commit while a battle decision
+ * is written, instead of waiting for it. With synchronous NORMAL a commit does not wait for the
+ * disk in WAL mode. A power loss can lose the last decisions but never corrupts the database.
+ * </p>
+ *
+ * @author KoaGex
+ *
+ */
+public final class SqlitePragmas {
+
+  public static final SqlitePragmas DEFAULT = new SqlitePragmas("WAL", "NORMAL", 256L << 20,
+      16 << 10, 5000, 4);
+
+  private final String journalMode;
+  private final String synchronous;
+  private final long mmapSize;
+  private final int cacheSizeKib;
+  private final int busyTimeoutMillis;
+  private final int poolSize;
+
+  private SqlitePragmas(String journalMode, String synchronous, long mmapSize, int cacheSizeKib,
+      int busyTimeoutMillis, int poolSize) {
+    this.journalMode = journalMode;
+    this.synchronous = synchronous;
+    this.mmapSize = mmapSize;
+    this.cacheSizeKib = cacheSizeKib;
+    this.busyTimeoutMillis = busyTimeoutMillis;
+    this.poolSize = poolSize;
+  }
+
+  /**
+   * @param journalMode
+   *          For example WAL, DELETE or TRUNCATE.
+   */
+  public SqlitePragmas withJournalMode(String journalMode) {
+    return new SqlitePragmas(journalMode, synchronous, mmapSize, cacheSizeKib, busyTimeoutMillis,
+        poolSize);
+  }
+
+  /**
+   * @param synchronous
+   *          OFF, NORMAL, FULL or EXTRA.
+   */
+  public SqlitePragmas withSynchronous(String synchronous) {
+    return new SqlitePragmas(journalMode, synchronous, mmapSize, cacheSizeKib, busyTimeoutMillis,
+        poolSize);
+  }
+
+  /**
+   * @param mmapSize
+   *          Bytes of the database file that are read through memory mapping. 0 turns it off.
+   */
+  public SqlitePragmas withMmapSize(long mmapSize) {
+    return new SqlitePragmas(journalMode, synchronous, mmapSize, cacheSizeKib, busyTimeoutMillis,
+        poolSize);
+  }
+
+  /**
+   * @param cacheSizeKib
+   *          Page cache per connection.
+   */
+  public SqlitePragmas withCacheSizeKib(int cacheSizeKib) {
+    return new SqlitePragmas(journalMode, synchronous, mmapSize, cacheSizeKib, busyTimeoutMillis,
+        poolSize);
+  }
+
+  /**
+   * @param busyTimeoutMillis
+   *          How long a connection waits for a lock held by another one before it fails.
+   */
+  public SqlitePragmas withBusyTimeoutMillis(int busyTimeoutMillis) {
+    return new SqlitePragmas(journalMode, synchronous, mmapSize, cacheSizeKib, busyTimeoutMillis,
+        poolSize);
+  }
+
+  /**
+   * @param poolSize
+   *          Number of idle connections {@link SqliteDatabase} keeps open.
+   */
+  public SqlitePragmas withPoolSize(int poolSize) {
+    if (poolSize < 0) {
+      throw new IllegalArgumentException("poolSize must not be negative: " + poolSize);
+    }
+    return new SqlitePragmas(journalMode, synchronous, mmapSize, cacheSizeKib, busyTimeoutMillis,
+        poolSize);
+  }
+
+  int poolSize() {
+    return poolSize;
+  }
+
+  List<String> statements() {
+    return Arrays.asList(//
+        "PRAGMA journal_mode = " + journalMode, //
+        "PRAGMA synchronous = " + synchronous, //
+        "PRAGMA mmap_size = " + mmapSize, //
+        // negative means KiB instead of pages
+        "PRAGMA cache_size = -" + cacheSizeKib, //
+        "PRAGMA busy_timeout = " + busyTimeoutMillis);
+  }
+
+  void apply(Connection connection) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      for (String pragma : statements()) {
+        statement.execute(pragma);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return statements() + ", pool size " + poolSize;
+  }
+
+}
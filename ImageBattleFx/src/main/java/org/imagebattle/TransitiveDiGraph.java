@@ -2,18 +2,18 @@ package org.imagebattle;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Comparator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
-import java.util.Queue;
+import java.util.Random;
 import java.util.Set;
-import java.util.function.BiFunction;
-import java.util.function.Function;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.ReadOnlyBooleanProperty;
@@ -21,118 +21,319 @@ import javafx.beans.property.SimpleBooleanProperty;
 import javafx.util.Pair;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.jgrapht.graph.DefaultEdge;
-import org.jgrapht.graph.SimpleDirectedGraph;
 
 /**
  * 
- * A graph that represents a transitive relation.
+ * A graph that represents a transitive relation. An edge source -> target means the source won
+ * against the target.
  * 
  * @author KoaGex
  *
  */
-public class TransitiveDiGraph extends SimpleDirectedGraph<File, DefaultEdge> {
+public class TransitiveDiGraph {
   private static Logger LOG = LogManager.getLogger();
   private BooleanProperty finished = new SimpleBooleanProperty();
 
-  public TransitiveDiGraph() {
-    super(DefaultEdge.class);
+  /**
+   * Holds the vertices and edges of this graph as bits. There are no edge objects, methods that
+   * return edges build pairs of files from the rows.
+   */
+  private final ReachabilityMatrix matrix = new ReachabilityMatrix();
+
+  /**
+   * Adds the edge and all edges that follow from it by transitivity.
+   * 
+   * @return true if the vertices were not compared before.
+   */
+  public boolean addEdge(File sourceVertex, File targetVertex) {
+    return !addEdgesTransitive(sourceVertex, targetVertex).isEmpty();
   }
 
   /**
+   * Adds the edge and all edges that follow from it by transitivity.
    * 
+   * @return All edges as pairs of winner and loser that were not in the graph before. The edge
+   *         sourceVertex -> targetVertex is the first one. Empty if both vertices were already
+   *         compared.
    */
-  private static final long serialVersionUID = 1L;
+  public List<Pair<File, File>> addEdgesTransitive(File sourceVertex, File targetVertex) {
+    existingId(sourceVertex);
+    existingId(targetVertex);
 
-  @Override
-  public DefaultEdge addEdge(File sourceVertex, File targetVertex) {
-    List<DefaultEdge> addEdgesTransitive = addEdgesTransitive(sourceVertex, targetVertex);
-    return addEdgesTransitive.isEmpty() ? null : addEdgesTransitive.get(0);
-  }
+    LOG.trace(sourceVertex.getName() + " won against " + targetVertex.getName());
 
-  public List<DefaultEdge> addEdgesTransitive(File sourceVertex, File targetVertex) {
+    if (containsAnyEdge(sourceVertex, targetVertex)) {
+      LOG.trace("edge already set:" + sourceVertex.getName() + " -> " + targetVertex.getName());
+      return new ArrayList<>();
+    }
 
-    List<DefaultEdge> result = new ArrayList<>();
+    long edgeCountOld = matrix.edgeCount();
 
-    LOG.trace(sourceVertex.getName() + " won against " + targetVertex.getName());
+    int[] closure = matrix.missingClosure(matrix.id(sourceVertex), matrix.id(targetVertex));
+    List<Pair<File, File>> result = new ArrayList<>(closure.length / 2);
+    for (int i = 0; i < closure.length; i += 2) {
+      matrix.set(closure[i], closure[i + 1]);
+      File from = matrix.file(closure[i]);
+      File to = matrix.file(closure[i + 1]);
+      LOG.trace("add edge {} -> {}", from.getName(), to.getName());
+      result.add(new Pair<>(from, to));
+    }
 
-    BiFunction<File, File, DefaultEdge> addEdge = (from, to) -> {
-      boolean edgeExists = super.containsEdge(from, to) || super.containsEdge(to, from);
-      if (edgeExists) {
-        LOG.trace("edge already set:" + from.getName() + " -> " + to.getName());
-        return null;
-      } else {
-        // use super. without it would quickly result in an infinite recursive loop
-        DefaultEdge newEdge = super.addEdge(from, to);
-        LOG.trace("add edge {} -> {} . newEdge: {}", from.getName(), to.getName(), newEdge);
-        return newEdge;
-      }
-    };
+    long edgeCountNew = matrix.edgeCount();
+    long edgesAdded = edgeCountNew - edgeCountOld;
+    long ofMaximal = matrix.maxEdgeCount();
+    double percent = Double.valueOf(edgeCountNew) / Double.valueOf(ofMaximal);
+    LOG.trace("added {} and now have {} edges of {} possible. In Percent: {}", edgesAdded,
+        edgeCountNew, ofMaximal, percent);
 
-    int edgeCountOld = super.edgeSet().size();
+    checkFinished();
 
-    // ensure transitivity
-    Queue<Pair<File, File>> queue = new LinkedList<Pair<File, File>>();
+    return result;
+  }
 
-    queue.add(new Pair<File, File>(sourceVertex, targetVertex));
-    while (!queue.isEmpty()) {
+  /**
+   * Like {@link #addEdgesTransitive(File, File)} but it notices in O(1) when the loser already won
+   * against the winner, which would close a cycle.
+   * 
+   * @return The added edges and the edges {@link ConflictPolicy#KEEP_NEWEST} removed. Empty if the
+   *         winner already won against the loser.
+   * @throws EdgeConflictException
+   *           for {@link ConflictPolicy#REJECT} when there is a conflict.
+   */
+  public GraphChange addEdgesTransitive(File winner, File loser, ConflictPolicy policy) {
+    int winnerId = existingId(winner);
+    int loserId = existingId(loser);
+
+    List<Pair<File, File>> removedEdges = new ArrayList<>();
+    if (matrix.contains(loserId, winnerId)) {
+      List<File> path = conflictPath(loserId, winnerId);
+      if (policy == ConflictPolicy.REJECT) {
+        throw new EdgeConflictException(winner, loser, path);
+      }
+      removedEdges = removeContradictingEdges(winnerId, loserId);
+      LOG.info("{} won against {}, removed {} edges of paths like {}", winner, loser,
+          removedEdges.size(), path);
+    }
 
-      Pair<File, File> current = queue.poll();
-      File b = current.getKey();
-      File c = current.getValue();
+    return new GraphChange(addEdgesTransitive(winner, loser), removedEdges);
+  }
 
-      DefaultEdge edge = addEdge.apply(b, c);
-      if (edge != null) {
-        result.add(edge);
+  /**
+   * @return A path of covering edges from the loser to the winner. Each step goes to the file
+   *         closest to the current one that still won against the winner.
+   */
+  private List<File> conflictPath(int loserId, int winnerId) {
+    List<File> path = new ArrayList<>();
+    path.add(matrix.file(loserId));
+    long[] winnerLosses = matrix.lossRow(winnerId);
+    int current = loserId;
+    while (current != winnerId && path.size() <= matrix.vertexCount()) {
+      long[] winRow = matrix.winRow(current);
+      int next = winnerId;
+      for (int w = 0; w < winRow.length; w++) {
+        long candidates = winRow[w] & winnerLosses[w];
+        while (candidates != 0) {
+          int candidate = (w << 6) + Long.numberOfTrailingZeros(candidates);
+          candidates &= candidates - 1;
+          if (next == winnerId || matrix.lossCount(candidate) < matrix.lossCount(next)) {
+            next = candidate;
+          }
+        }
       }
+      path.add(matrix.file(next));
+      current = next;
+    }
+    return path;
+  }
 
-      // b -> c -> d
-      super.outgoingEdgesOf(c).stream()//
-          .map(super::getEdgeTarget) //
-          .filter(d -> !containsAnyEdge(b, d))//
-          .map(d -> new Pair<File, File>(b, d))//
-          .peek(LOG::trace) //
-          .forEach(queue::add);
-
-      // a -> b -> c
-      super.incomingEdgesOf(b).stream()//
-          .map(super::getEdgeSource) //
-          .filter(a -> !containsAnyEdge(c, a))//
-          .map(a -> new Pair<File, File>(a, c))//
-          .peek(LOG::trace) //
-          .forEach(queue::add);
+  /**
+   * Removes all edges from the loser and the files it won against to the winner and the files that
+   * won against it. These are the edges of all paths from the loser to the winner and what is left
+   * is still transitive.
+   */
+  private List<Pair<File, File>> removeContradictingEdges(int winnerId, int loserId) {
+    long[] targets = Arrays.copyOf(matrix.lossRow(winnerId), matrix.aliveRow().length);
+    targets[winnerId >>> 6] |= 1L << winnerId;
+    long[] sources = Arrays.copyOf(matrix.winRow(loserId), targets.length);
+    sources[loserId >>> 6] |= 1L << loserId;
+
+    List<Pair<File, File>> contradicting = new ArrayList<>();
+    for (int x = ReachabilityMatrix.nextSetBit(sources, 0); x >= 0; x = ReachabilityMatrix
+        .nextSetBit(sources, x + 1)) {
+      long[] winRow = matrix.winRow(x);
+      for (int w = 0; w < targets.length; w++) {
+        long both = winRow[w] & targets[w];
+        while (both != 0) {
+          int y = (w << 6) + Long.numberOfTrailingZeros(both);
+          both &= both - 1;
+          contradicting.add(new Pair<>(matrix.file(x), matrix.file(y)));
+        }
+      }
     }
+    contradicting.forEach(pair -> removeEdge(pair.getKey(), pair.getValue()));
+    return contradicting;
+  }
 
-    int edgeCountNew = super.edgeSet().size();
-    int edgesAdded = edgeCountNew - edgeCountOld;
-    int nodeCount = super.vertexSet().size();
-    int ofMaximal = nodeCount * (nodeCount - 1) / 2;
-    double percent = Double.valueOf(edgeCountNew) / Double.valueOf(ofMaximal);
-    LOG.trace("added {} and now have {} edges of {} possible. In Percent: {}", edgesAdded,
-        edgeCountNew, ofMaximal, percent);
+  /**
+   * Takes back a change of {@link #addEdgesTransitive(File, File, ConflictPolicy)}. Only the edges
+   * of the change are touched. Changes must be reverted latest first, otherwise the graph may no
+   * longer be transitive.
+   */
+  public void revert(GraphChange change) {
+    replaceEdges(change.addedEdges(), change.removedEdges());
+  }
 
+  /**
+   * Applies a change again after {@link #revert(GraphChange)}.
+   */
+  public void reapply(GraphChange change) {
+    replaceEdges(change.removedEdges(), change.addedEdges());
+  }
+
+  private void replaceEdges(List<Pair<File, File>> oldEdges, List<Pair<File, File>> newEdges) {
+    oldEdges.forEach(pair -> removeEdge(pair.getKey(), pair.getValue()));
+    newEdges.forEach(pair -> matrix.set(matrix.id(pair.getKey()), matrix.id(pair.getValue())));
     checkFinished();
+  }
 
-    return result;
+  /**
+   * Linear audit: One AND of the wins and losses row of each vertex.
+   * 
+   * @return Pairs of files that both won against each other. Graphs that were only changed through
+   *         the add methods of this class never have them.
+   */
+  public List<Pair<File, File>> findContradictions() {
+    int[] contradictions = matrix.contradictions();
+    List<Pair<File, File>> pairs = new ArrayList<>(contradictions.length / 2);
+    for (int i = 0; i < contradictions.length; i += 2) {
+      pairs.add(new Pair<>(matrix.file(contradictions[i]), matrix.file(contradictions[i + 1])));
+    }
+    return pairs;
+  }
+
+  long getMaxEdgeCount() {
+    return matrix.maxEdgeCount();
   }
 
-  int getMaxEdgeCount() {
-    Set<File> vertexSet = this.vertexSet();
-    int nodeCount = vertexSet.size();
-    int maxEdgeCount = nodeCount * (nodeCount - 1) / 2;
-    return maxEdgeCount;
+  long getCurrentEdgeCount() {
+    return matrix.edgeCount();
   }
 
-  int getCurrentEdgeCount() {
-    return this.edgeSet().size();
+  /**
+   * @return The files that won against the given file, taken from its row of losses.
+   */
+  public List<File> winnersOf(File file) {
+    return toFiles(matrix.lossRow(existingId(file)));
+  }
+
+  /**
+   * @return The files the given file won against.
+   */
+  public List<File> losersOf(File file) {
+    return toFiles(matrix.winRow(existingId(file)));
   }
 
   public Integer getWinLoseDifference(File file) {
     return outDegreeOf(file) - inDegreeOf(file);
   }
 
+  /**
+   * Ranking by {@link #getWinLoseDifference(File)}. Files with the same difference are in no
+   * particular order.
+   * 
+   * @return 0 for the best file.
+   */
+  public int rankOf(File file) {
+    return matrix.ranks().rankOf(existingId(file));
+  }
+
+  /**
+   * @return The file at this place of {@link #getRankingList()}.
+   * @throws IndexOutOfBoundsException
+   *           if there is no such rank.
+   */
+  public File fileAtRank(int rank) {
+    return matrix.file(matrix.ranks().idAtRank(rank));
+  }
+
+  public List<File> filesWithWinLoseDifference(int difference) {
+    return toFiles(matrix.ranks().idsWithScore(difference));
+  }
+
+  /**
+   * @return The {@link #getWinLoseDifference(File)} that most files share.
+   */
+  public int getMostCommonWinLoseDifference() {
+    return matrix.ranks().mostCommonScore();
+  }
+
+  /**
+   * @return All vertices from best to worst {@link #getWinLoseDifference(File)} without sorting.
+   */
+  public List<File> getRankingList() {
+    return toFiles(matrix.ranks().ranking());
+  }
+
+  private List<File> toFiles(int[] ids) {
+    List<File> files = new ArrayList<>(ids.length);
+    for (int id : ids) {
+      files.add(matrix.file(id));
+    }
+    return files;
+  }
+
+  private List<File> toFiles(long[] row) {
+    List<File> files = new ArrayList<>();
+    for (int id = ReachabilityMatrix.nextSetBit(row, 0); id >= 0; id = ReachabilityMatrix
+        .nextSetBit(row, id + 1)) {
+      files.add(matrix.file(id));
+    }
+    return files;
+  }
+
+  private int existingId(File file) {
+    int id = matrix.id(file);
+    if (id < 0) {
+      throw new IllegalArgumentException("not a vertex: " + file);
+    }
+    return id;
+  }
+
   public boolean containsAnyEdge(File v1, File v2) {
-    return containsEdge(v1, v2) || containsEdge(v2, v1);
+    int id1 = matrix.id(v1);
+    int id2 = matrix.id(v2);
+    return id1 >= 0 && id2 >= 0 && matrix.containsAny(id1, id2);
+  }
+
+  public boolean containsEdge(File sourceVertex, File targetVertex) {
+    int source = matrix.id(sourceVertex);
+    int target = matrix.id(targetVertex);
+    return source >= 0 && target >= 0 && matrix.contains(source, target);
+  }
+
+  /**
+   * @return Wins of the file as counted by the {@link ReachabilityMatrix}.
+   */
+  public int outDegreeOf(File vertex) {
+    return matrix.winCount(existingId(vertex));
+  }
+
+  /**
+   * @return Losses of the file as counted by the {@link ReachabilityMatrix}.
+   */
+  public int inDegreeOf(File vertex) {
+    return matrix.lossCount(existingId(vertex));
+  }
+
+  /**
+   * @return Unmodifiable view of all vertices in the order they were added.
+   */
+  public Set<File> vertexSet() {
+    return matrix.files();
+  }
+
+  public boolean containsVertex(File vertex) {
+    return matrix.id(vertex) >= 0;
   }
 
   ResultListEntry fileToResultEntry(File i) {
@@ -140,7 +341,7 @@ public class TransitiveDiGraph extends SimpleDirectedGraph<File, DefaultEdge> {
     entry.file = i;
     entry.wins = outDegreeOf(i);
     entry.loses = inDegreeOf(i);
-    entry.fixed = vertexSet().size() - 1 == entry.wins + entry.loses;
+    entry.fixed = matrix.vertexCount() - 1 == entry.wins + entry.loses;
     return entry;
   }
 
@@ -149,11 +350,12 @@ public class TransitiveDiGraph extends SimpleDirectedGraph<File, DefaultEdge> {
    *         {@link #vertexSet()}.
    */
   public final Stream<Pair<File, File>> getCandidateStream() {
-    Set<File> vertexSet = this.vertexSet();
-    return getCandidateStream(vertexSet);
+    return toStream(this::getCandidateCursor);
   }
 
   /**
+   * Prefer {@link #getCandidateCursor(Collection)} when not all pairs are needed as objects.
+   * 
    * @param vertexSubset
    *          Must be a subset of {@link #vertexSet()}. The result Stream will only contain pairs
    *          with elements of this subset.
@@ -161,97 +363,278 @@ public class TransitiveDiGraph extends SimpleDirectedGraph<File, DefaultEdge> {
    *         contains pair (a,b) it does not contain (b,a).
    */
   public final Stream<Pair<File, File>> getCandidateStream(Collection<File> vertexSubset) {
+    CandidateCursor cursor = getCandidateCursor(vertexSubset);
+    return toStream(() -> cursor);
+  }
 
-    if (!vertexSet().containsAll(vertexSubset)) {
-      throw new IllegalArgumentException(
-          "the given vertexSubset " + vertexSubset + "  ist not a subset of vertexSet!");
-    }
+  private Stream<Pair<File, File>> toStream(Supplier<CandidateCursor> cursorSupplier) {
+    int characteristics = Spliterator.DISTINCT | Spliterator.NONNULL;
+    Spliterator<Pair<File, File>> spliterator =
+        new Spliterators.AbstractSpliterator<Pair<File, File>>(Long.MAX_VALUE, characteristics) {
+      private CandidateCursor cursor;
+
+      @Override
+      public boolean tryAdvance(Consumer<? super Pair<File, File>> action) {
+        if (cursor == null) {
+          cursor = cursorSupplier.get();
+        }
+        if (!cursor.next()) {
+          return false;
+        }
+        action.accept(new Pair<File, File>(cursor.first(), cursor.second()));
+        return true;
+      }
+    };
+    return StreamSupport.stream(spliterator, false);
+  }
+
+  /**
+   * @return A cursor over all pairs of vertices that have not been compared yet.
+   */
+  public final CandidateCursor getCandidateCursor() {
+    return new CandidateCursor(matrix, matrix.aliveRow().clone());
+  }
 
-    Stream<Pair<File, File>> candidatesStream = null;
+  /**
+   * @param vertexSubset
+   *          Must be a subset of {@link #vertexSet()}.
+   * @return A cursor over all pairs of vertices of the subset that have not been compared yet.
+   */
+  public final CandidateCursor getCandidateCursor(Collection<File> vertexSubset) {
+    long[] members = new long[matrix.aliveRow().length];
+    for (File file : vertexSubset) {
+      int id = matrix.id(file);
+      if (id < 0) {
+        throw new IllegalArgumentException(
+            "the given vertexSubset contains " + file + " which is not in the vertexSet!");
+      }
+      members[id >>> 6] |= 1L << id;
+    }
+    return new CandidateCursor(matrix, members);
+  }
 
-    // multiple choosing algorithms will need the candidates
-    candidatesStream = vertexSubset.stream() //
-        .flatMap(from -> vertexSubset.stream() //
-            .filter(to -> !this.containsAnyEdge(from, to))//
-            .filter(to -> !Objects.equals(to, from)) //
-            // graph does not allow loops
-            .filter(to -> Comparator.comparing(File::getAbsolutePath).compare(to, from) > 0) //
-            // avoid having candidates a-b and b-a
-            .map(to -> new Pair<File, File>(from, to))//
-    );
-    return candidatesStream;
+  /**
+   * Random access into the pairs of {@link #getCandidateCursor()} without visiting the pairs in
+   * front of it. Only the missing bits per vertex are counted.
+   * 
+   * @param index
+   *          Between 0 inclusive and {@link #getCalculatedCandidateCount()} exclusive.
+   * @return The pair the cursor would visit at this position.
+   */
+  public final Pair<File, File> getCandidate(long index) {
+    long[] alive = matrix.aliveRow();
+    long remaining = index;
+    for (int a = ReachabilityMatrix.nextSetBit(alive, 0); a >= 0; a = ReachabilityMatrix
+        .nextSetBit(alive, a + 1)) {
+      long[] wins = matrix.winRow(a);
+      long[] losses = matrix.lossRow(a);
+      int firstWord = a >>> 6;
+      for (int w = firstWord; w < alive.length; w++) {
+        long missing = alive[w] & ~wins[w] & ~losses[w];
+        if (w == firstWord) {
+          missing &= (-1L << a) << 1;
+        }
+        int count = Long.bitCount(missing);
+        if (remaining < count) {
+          int b = (w << 6) + ReachabilityMatrix.selectBit(missing, (int) remaining);
+          return new Pair<File, File>(matrix.file(a), matrix.file(b));
+        }
+        remaining -= count;
+      }
+    }
+    throw new IndexOutOfBoundsException("there is no candidate with index " + index);
   }
 
   /**
-   * @return How many candidate pairs should be left in the {@link #graph}.
+   * @return Any pair of vertices that have not been compared yet, each one with the same
+   *         probability. No list of candidates is built.
+   * @throws IllegalStateException
+   *           if there are no candidates left.
    */
-  public final int getCalculatedCandidateCount() {
-    Set<File> vertexSet = this.vertexSet();
-    int nodeCount = vertexSet.size();
-    int currentEdgeCount = this.edgeSet().size();
+  public final Pair<File, File> getRandomCandidate(Random random) {
+    long candidateCount = getCalculatedCandidateCount();
+    if (candidateCount <= 0) {
+      throw new IllegalStateException("no candidates left");
+    }
+
+    // Every pair is counted from both of its vertices. That keeps the choice uniform and only needs
+    // the number of missing partners per vertex.
+    long orderedCount = 2 * candidateCount;
+    long remaining = Math.min(orderedCount - 1, (long) (random.nextDouble() * orderedCount));
+
+    long[] alive = matrix.aliveRow();
+    int vertexCount = matrix.vertexCount();
+    for (int a = ReachabilityMatrix.nextSetBit(alive, 0); a >= 0; a = ReachabilityMatrix
+        .nextSetBit(alive, a + 1)) {
+      int missingCount = vertexCount - 1 - matrix.winCount(a) - matrix.lossCount(a);
+      if (remaining < missingCount) {
+        long[] wins = matrix.winRow(a);
+        long[] losses = matrix.lossRow(a);
+        for (int w = 0; w < alive.length; w++) {
+          long missing = alive[w] & ~wins[w] & ~losses[w];
+          if (w == a >>> 6) {
+            missing &= ~(1L << a);
+          }
+          int count = Long.bitCount(missing);
+          if (remaining < count) {
+            int b = (w << 6) + ReachabilityMatrix.selectBit(missing, (int) remaining);
+            return new Pair<File, File>(matrix.file(a), matrix.file(b));
+          }
+          remaining -= count;
+        }
+      }
+      remaining -= missingCount;
+    }
+    throw new IllegalStateException("candidate count does not match the edges of the graph");
+  }
 
-    int maxEdgeCount = nodeCount * (nodeCount - 1) / 2;
-    int calculatedCandidateCount = maxEdgeCount - currentEdgeCount;
+  /**
+   * @return How many candidate pairs should be left in the {@link #graph}. Kept up to date while
+   *         edges and vertices change, so this is a plain read.
+   */
+  public final long getCalculatedCandidateCount() {
+    long calculatedCandidateCount = matrix.missingPairCount();
 
     LOG.trace(calculatedCandidateCount);
     return calculatedCandidateCount;
   }
 
-  @Override
   public boolean addVertex(File v) {
-    boolean wasAdded = super.addVertex(v);
+    Objects.requireNonNull(v);
+    boolean wasAdded = !containsVertex(v);
+    if (wasAdded) {
+      matrix.add(v);
+    }
     checkFinished();
     return wasAdded;
   }
 
   public boolean removeVertex(File v) {
-    boolean wasRemoved = super.removeVertex(v);
+    boolean wasRemoved = containsVertex(v);
+    if (wasRemoved) {
+      matrix.remove(v);
+    }
     checkFinished();
     return wasRemoved;
   };
 
-  public void addNormalEdges(List<Pair<String, String>> filesPaths) {
+  /**
+   * Removes only this edge. Edges that followed from it by transitivity stay.
+   * 
+   * @return false if there was no such edge.
+   */
+  public boolean removeEdge(File sourceVertex, File targetVertex) {
+    boolean removed = containsEdge(sourceVertex, targetVertex);
+    if (removed) {
+      matrix.clear(matrix.id(sourceVertex), matrix.id(targetVertex));
+    }
+    return removed;
+  }
+
+  /**
+   * {@link #addEdgesBulk(List, int[], ConflictPolicy)} where later edges win.
+   */
+  public List<Pair<File, File>> addEdgesBulk(List<File> vertices, int[] edges) {
+    return addEdgesBulk(vertices, edges, ConflictPolicy.KEEP_NEWEST);
+  }
+
+  /**
+   * Loads edges that are already transitively closed, like the edges stored by
+   * {@link CentralStorage}. The edges are set as bits in one pass without looking for implied
+   * edges, degrees and ranking are updated once per vertex. Only if the result is not transitive or
+   * has contradictions the edges are removed again and added one after the other with the given
+   * policy.
+   * 
+   * @param vertices
+   *          All of them are added. The edges refer to them by their index in this list.
+   * @param edges
+   *          Winner and loser index of each edge stored one after the other: [winner0, loser0,
+   *          winner1, loser1, ...]. Older edges come first.
+   * @param policy
+   *          {@link ConflictPolicy#REJECT} skips edges that contradict earlier ones.
+   * @return Edges that were skipped or removed because of contradictions.
+   */
+  public List<Pair<File, File>> addEdgesBulk(List<File> vertices, int[] edges,
+      ConflictPolicy policy) {
+    int[] ids = new int[vertices.size()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = matrix.add(vertices.get(i));
+    }
 
-    // add all edges
-    for (Pair<String, String> pair : filesPaths) {
-      final File winner = new File(pair.getKey());
-      final File loser = new File(pair.getValue());
-      addVertex(winner);
-      addVertex(loser);
-      super.addEdge(winner, loser);
+    int[] idEdges = new int[edges.length];
+    for (int i = 0; i < edges.length; i++) {
+      idEdges[i] = ids[edges[i]];
     }
-    // TODO check if transitive is still fulfilled
+    matrix.setAll(idEdges);
 
+    List<Pair<File, File>> dropped = new ArrayList<>();
+    if (matrix.contradictions().length > 0 || !matrix.isTransitive()) {
+      LOG.warn("the loaded edges are not transitive or contradict each other, adding them again");
+      for (int i = 0; i < edges.length; i += 2) {
+        matrix.clear(ids[edges[i]], ids[edges[i + 1]]);
+      }
+      for (int i = 0; i < edges.length; i += 2) {
+        File winner = vertices.get(edges[i]);
+        File loser = vertices.get(edges[i + 1]);
+        if (winner.equals(loser)) {
+          continue;
+        }
+        if (policy == ConflictPolicy.REJECT && containsEdge(loser, winner)) {
+          dropped.add(new Pair<>(winner, loser));
+        } else {
+          dropped.addAll(addEdgesTransitive(winner, loser, policy).removedEdges());
+        }
+      }
+      LOG.warn("dropped edges: {}", dropped);
+    }
+
+    checkFinished();
+    return dropped;
   }
 
   ReadOnlyBooleanProperty finishedProperty() {
     return finished;
   }
 
-  List<Pair<File, File>> getEdgePairs() {
-
-    Function<DefaultEdge, Pair<File, File>> function = edge -> new Pair<>(this.getEdgeTarget(edge),
-        this.getEdgeSource(edge));
-
-    List<Pair<File, File>> newEdgePairs = this.edgeSet().stream()//
-        .map(function)//
-        .collect(Collectors.toList());
+  /**
+   * For {@link GraphSnapshot}. Changes must go through the graph.
+   */
+  ReachabilityMatrix matrix() {
+    return matrix;
+  }
 
+  /**
+   * @return All edges as pairs of loser and winner, built from the rows on each call.
+   */
+  List<Pair<File, File>> getEdgePairs() {
+    long[] alive = matrix.aliveRow();
+    List<Pair<File, File>> newEdgePairs = new ArrayList<>((int) matrix.edgeCount());
+    for (int winner = ReachabilityMatrix.nextSetBit(alive, 0); winner >= 0; winner =
+        ReachabilityMatrix.nextSetBit(alive, winner + 1)) {
+      long[] winRow = matrix.winRow(winner);
+      for (int loser = ReachabilityMatrix.nextSetBit(winRow, 0); loser >= 0; loser =
+          ReachabilityMatrix.nextSetBit(winRow, loser + 1)) {
+        newEdgePairs.add(new Pair<>(matrix.file(loser), matrix.file(winner)));
+      }
+    }
     return newEdgePairs;
   }
 
   private void checkFinished() {
-    int currentEdgeCount = getCurrentEdgeCount();
-    int maxEdgeCount = getMaxEdgeCount();
-    boolean graphCompleted = currentEdgeCount == maxEdgeCount;
+    boolean graphCompleted = matrix.missingPairCount() == 0;
     finished.set(graphCompleted);
   }
 
-  List<DefaultEdge> simplifiedEdges() {
-    Predicate<DefaultEdge> isTransitiveEdge = e -> vertexSet().stream()//
-        .anyMatch(v -> containsEdge(getEdgeSource(e), v) && containsEdge(v, getEdgeTarget(e)));
-    return edgeSet().stream()//
-        .filter(isTransitiveEdge.negate())//
-        .collect(Collectors.toList());
+  /**
+   * @return The edges of the Hasse diagram as pairs of winner and loser: All edges that do not
+   *         follow from two other edges by transitivity.
+   */
+  List<Pair<File, File>> simplifiedEdges() {
+    int[] coveringEdges = matrix.coveringEdges();
+    List<Pair<File, File>> result = new ArrayList<>(coveringEdges.length / 2);
+    for (int i = 0; i < coveringEdges.length; i += 2) {
+      result.add(new Pair<>(matrix.file(coveringEdges[i]), matrix.file(coveringEdges[i + 1])));
+    }
+    return result;
   }
 }
\ No newline at end of file
@@ -0,0 +1,168 @@
+package org.imagebattle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Runs writes on one background thread so the thread that made a decision does not wait for the
+ * disk. Writes that arrive within one flush interval are committed together in one transaction.
+ * Writes run in the order they were submitted.
+ *
+ * <p>
+ * When the backlog is full, {@link #submit(Runnable)} blocks until the writer caught up. This way a
+ * slow disk slows down the producer instead of filling the memory.
+ * </p>
+ *
+ * @author KoaGex
+ *
+ */
+final class WriteBehindQueue implements AutoCloseable {
+
+  private static final Logger LOG = LogManager.getLogger();
+
+  private final BlockingQueue<Runnable> backlog;
+
+  private final long flushIntervalMillis;
+
+  /**
+   * Runs the given writes in one transaction.
+   */
+  private final Consumer<Runnable> transaction;
+
+  private final Thread writer;
+
+  private volatile boolean closed = false;
+
+  /**
+   * Waits in the backlog like a write. When the writer reaches it, everything before it is
+   * committed.
+   */
+  private static final class Flush implements Runnable {
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    @Override
+    public void run() {
+      done.countDown();
+    }
+  }
+
+  WriteBehindQueue(String name, long flushIntervalMillis, int capacity,
+      Consumer<Runnable> transaction) {
+    if (flushIntervalMillis < 0) {
+      throw new IllegalArgumentException("flushIntervalMillis must not be negative");
+    }
+    this.flushIntervalMillis = flushIntervalMillis;
+    this.backlog = new ArrayBlockingQueue<>(capacity);
+    this.transaction = transaction;
+    writer = new Thread(this::writeLoop, name);
+    // shutdown hooks flush, the writer must not keep the application alive
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * @throws IllegalStateException
+   *           if the queue was closed.
+   */
+  void submit(Runnable write) {
+    if (closed) {
+      throw new IllegalStateException("write behind queue is closed");
+    }
+    try {
+      backlog.put(write);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted while waiting for the writer", e);
+    }
+  }
+
+  /**
+   * Waits until all writes submitted before are committed. Does nothing when called by a write,
+   * that one is committed together with its group anyway.
+   */
+  void flush() {
+    if (Thread.currentThread() == writer || closed) {
+      return;
+    }
+    Flush flush = new Flush();
+    submit(flush);
+    try {
+      flush.done.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Commits the backlog and stops the writer.
+   */
+  @Override
+  public void close() {
+    flush();
+    closed = true;
+    writer.interrupt();
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void writeLoop() {
+    List<Runnable> group = new ArrayList<>();
+    while (!closed) {
+      try {
+        group.add(backlog.take());
+        long deadline = System.currentTimeMillis() + flushIntervalMillis;
+        while (!(group.get(group.size() - 1) instanceof Flush)) {
+          Runnable next = backlog.poll(deadline - System.currentTimeMillis(),
+              TimeUnit.MILLISECONDS);
+          if (next == null) {
+            break;
+          }
+          group.add(next);
+        }
+      } catch (InterruptedException e) {
+        // close() interrupts only after the last flush
+        if (closed) {
+          break;
+        }
+      }
+      commit(group);
+      group.clear();
+    }
+  }
+
+  private void commit(List<Runnable> group) {
+    List<Runnable> writes = new ArrayList<>(group);
+    writes.removeIf(Flush.class::isInstance);
+    if (!writes.isEmpty()) {
+      try {
+        transaction.accept(() -> writes.forEach(Runnable::run));
+        LOG.debug("committed {} writes", writes.size());
+      } catch (RuntimeException e) {
+        // one broken write must not take the others with it
+        LOG.warn("group commit failed, retrying {} writes one by one", writes.size(), e);
+        for (Runnable write : writes) {
+          try {
+            transaction.accept(write);
+          } catch (RuntimeException single) {
+            LOG.error("write lost", single);
+          }
+        }
+      }
+    }
+    group.stream()//
+        .filter(Flush.class::isInstance)//
+        .forEach(Runnable::run);
+  }
+
+}
@@ -64,7 +64,7 @@ public abstract class ACandidateChooser {
    *         battle is finished.
    */
   public final Optional<Pair<File, File>> getNextCandidates() {
-    int calculatedCandidateCount = graph.getCalculatedCandidateCount();
+    long calculatedCandidateCount = graph.getCalculatedCandidateCount();
 
     return (calculatedCandidateCount == 0) ? Optional.empty() : Optional.of(doGetNextCandidates());
   }
@@ -4,7 +4,6 @@ import java.io.File;
 import java.util.Comparator;
 import java.util.List;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -32,25 +31,20 @@ public class BiSectionCandidateChooser extends ACandidateChooser {
         - graph.inDegreeOf(file);
 
     // sorted from best to worst
-    List<File> rankingList = graph.vertexSet()//
-        .stream()//
-        .sorted(Comparator.comparing(toWinLoseDifference, Comparator.reverseOrder()))//
-        .collect(Collectors.toList());
+    List<File> rankingList = graph.getRankingList();
 
     Function<File, Integer> toWorstWinner = file -> {
       return graph//
-          .incomingEdgesOf(file).stream()//
-          .map(graph::getEdgeSource)//
-          .mapToInt(rankingList::indexOf)//
+          .winnersOf(file).stream()//
+          .mapToInt(graph::rankOf)//
           .max()//
           .orElse(0);
     };
 
     Function<File, Integer> toBestLoser = file -> {
       return graph//
-          .outgoingEdgesOf(file).stream()//
-          .map(graph::getEdgeTarget)//
-          .mapToInt(rankingList::indexOf)//
+          .losersOf(file).stream()//
+          .mapToInt(graph::rankOf)//
           .min()//
           .orElse(rankingList.size() - 1);
     };
@@ -81,13 +75,13 @@ public class BiSectionCandidateChooser extends ACandidateChooser {
         .filter(file -> !graph.containsEdge(file, minimumDegreeCandidate))//
         .filter(file -> !graph.containsEdge(minimumDegreeCandidate, file))//
         .filter(file -> !minimumDegreeCandidate.equals(file))//
-        .sorted(Comparator.comparing(file -> Math.abs(medium - rankingList.indexOf(file))))//
+        .sorted(Comparator.comparing(file -> Math.abs(medium - graph.rankOf(file))))//
         .findFirst()//
         .get();
 
     log.debug("self:{} wW:{} bL:{} medium:{} other:{} diff:{}",
-        rankingList.indexOf(minimumDegreeCandidate), worstWinner, bestLooser, medium,
-        rankingList.indexOf(otherCandidate), bestLooser - worstWinner);
+        graph.rankOf(minimumDegreeCandidate), worstWinner, bestLooser, medium,
+        graph.rankOf(otherCandidate), bestLooser - worstWinner);
     // TODO i dont think this works correctly. debug by viewing the winner and looser lists.
 
     return new Pair<File, File>(minimumDegreeCandidate, otherCandidate);
@@ -1,7 +1,6 @@
 package org.imagebattle.chooser;
 
 import java.io.File;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
@@ -9,6 +8,7 @@ import java.util.function.Function;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.imagebattle.CandidateCursor;
 import org.imagebattle.TransitiveDiGraph;
 
 import javafx.util.Pair;
@@ -41,18 +41,25 @@ public class DateDistanceCandidateChooser extends ACandidateChooser {
       return fTime;
     };
 
-    // maybe pair apply, PairFunction->diff function?
-    Function<Pair<File, File>, Long> pairToDistance = pair -> {
-      File index1 = pair.getKey();
-      File index2 = pair.getValue();
+    File minKey = null;
+    File minValue = null;
+    long minDistance = Long.MAX_VALUE;
+    CandidateCursor cursor = graph.getCandidateCursor();
+    while (cursor.next()) {
+      File index1 = cursor.first();
+      File index2 = cursor.second();
       long distance = Math.abs(nodeIndexToTime.apply(index1) - nodeIndexToTime.apply(index2));
-      // System.out.println("distaance:" + distance);
-      return distance;
-    };
+      if (minKey == null || distance < minDistance) {
+        minDistance = distance;
+        minKey = index1;
+        minValue = index2;
+      }
+    }
 
-    return graph.getCandidateStream()//
-        .min(Comparator.comparing(pairToDistance))//
-        .orElseThrow(() -> new RuntimeException("no more candidates, we are finished now"));
+    if (minKey == null) {
+      throw new RuntimeException("no more candidates, we are finished now");
+    }
+    return new Pair<File, File>(minKey, minValue);
 
   }
 
@@ -1,11 +1,11 @@
 package org.imagebattle.chooser;
 
 import java.io.File;
-import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Set;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.function.ToIntBiFunction;
 
+import org.imagebattle.CandidateCursor;
 import org.imagebattle.TransitiveDiGraph;
 
 import javafx.util.Pair;
@@ -18,21 +18,15 @@ public class MaxNewEdgesCandidateChoser extends ACandidateChooser {
 
   @Override
   Pair<File, File> doGetNextCandidates() {
-    Function<Pair<File, File>, Integer> pairToPossibleEdgeCount = pair -> {
-      File key = pair.getKey();
-      File value = pair.getValue();
-      Set<File> keyIncoming = graph.incomingEdgesOf(key).stream().map(graph::getEdgeSource)
-          .collect(Collectors.toSet());
-      Set<File> valueIncoming = graph.incomingEdgesOf(value).stream().map(graph::getEdgeSource)
-          .collect(Collectors.toSet());
+    ToIntBiFunction<File, File> pairToPossibleEdgeCount = (key, value) -> {
+      Set<File> keyIncoming = new HashSet<>(graph.winnersOf(key));
+      Set<File> valueIncoming = new HashSet<>(graph.winnersOf(value));
       keyIncoming.removeAll(valueIncoming);
       valueIncoming.removeAll(keyIncoming);
       int incomeDiff = keyIncoming.size() + valueIncoming.size();
 
-      Set<File> keyOutgoing = graph.outgoingEdgesOf(key).stream().map(graph::getEdgeTarget)
-          .collect(Collectors.toSet());
-      Set<File> valueOutgoing = graph.outgoingEdgesOf(value).stream().map(graph::getEdgeTarget)
-          .collect(Collectors.toSet());
+      Set<File> keyOutgoing = new HashSet<>(graph.losersOf(key));
+      Set<File> valueOutgoing = new HashSet<>(graph.losersOf(value));
       keyOutgoing.removeAll(valueOutgoing);
       valueOutgoing.removeAll(keyOutgoing);
       int outgoingDiff = keyOutgoing.size() + valueOutgoing.size();
@@ -46,12 +40,20 @@ public class MaxNewEdgesCandidateChoser extends ACandidateChooser {
       // are
       // high
     };
-    return graph.getCandidateStream()//
-        .sorted(Comparator.comparing(pairToPossibleEdgeCount, Comparator.reverseOrder()))//
-        .limit(1)//
-        .peek(pair -> System.err.println(pairToPossibleEdgeCount.apply(pair)))//
-        .findFirst()//
-        .get();
+
+    File maxKey = null;
+    File maxValue = null;
+    int maxPossibleEdgeCount = Integer.MIN_VALUE;
+    CandidateCursor cursor = graph.getCandidateCursor();
+    while (cursor.next()) {
+      int possibleEdgeCount = pairToPossibleEdgeCount.applyAsInt(cursor.first(), cursor.second());
+      if (possibleEdgeCount > maxPossibleEdgeCount) {
+        maxPossibleEdgeCount = possibleEdgeCount;
+        maxKey = cursor.first();
+        maxValue = cursor.second();
+      }
+    }
+    return new Pair<File, File>(maxKey, maxValue);
   }
 
 }
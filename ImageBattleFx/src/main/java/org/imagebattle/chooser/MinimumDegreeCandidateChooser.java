@@ -1,11 +1,11 @@
 package org.imagebattle.chooser;
 
 import java.io.File;
-import java.util.Comparator;
-import java.util.function.Function;
+import java.util.function.ToIntFunction;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.imagebattle.CandidateCursor;
 import org.imagebattle.TransitiveDiGraph;
 
 import javafx.util.Pair;
@@ -20,17 +20,23 @@ public class MinimumDegreeCandidateChooser extends ACandidateChooser {
   @Override
   Pair<File, File> doGetNextCandidates() {
 
-    Function<File, Integer> fileToDegree = file -> graph.inDegreeOf(file) + graph.outDegreeOf(file);
-
-    Function<Pair<File, File>, Integer> filePairToDegreeSum = pair -> {
-      return fileToDegree.apply(pair.getKey()) + fileToDegree.apply(pair.getValue());
-    };
-
-    java.util.stream.Stream<Pair<File, File>> candidateStream = graph.getCandidateStream();
-    Pair<File, File> result = candidateStream.sorted(Comparator.comparing(filePairToDegreeSum))
-        .findFirst().get();
-    log.debug("minDegreeSum:" + filePairToDegreeSum.apply(result));
-    return result;
+    ToIntFunction<File> fileToDegree = file -> graph.inDegreeOf(file) + graph.outDegreeOf(file);
+
+    File minKey = null;
+    File minValue = null;
+    int minDegreeSum = Integer.MAX_VALUE;
+    CandidateCursor cursor = graph.getCandidateCursor();
+    while (cursor.next()) {
+      int degreeSum = fileToDegree.applyAsInt(cursor.first())
+          + fileToDegree.applyAsInt(cursor.second());
+      if (degreeSum < minDegreeSum) {
+        minDegreeSum = degreeSum;
+        minKey = cursor.first();
+        minValue = cursor.second();
+      }
+    }
+    log.debug("minDegreeSum:" + minDegreeSum);
+    return new Pair<File, File>(minKey, minValue);
   }
 
 }
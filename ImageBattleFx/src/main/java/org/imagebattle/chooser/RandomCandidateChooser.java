@@ -12,6 +12,8 @@ public class RandomCandidateChooser extends ACandidateChooser {
 
   private static Logger log = LogManager.getLogger();
 
+  private final Random random = new Random();
+
   public RandomCandidateChooser(TransitiveDiGraph pGraph) {
     super(pGraph);
   }
@@ -20,10 +22,7 @@ public class RandomCandidateChooser extends ACandidateChooser {
   Pair<File, File> doGetNextCandidates() {
     long start = System.currentTimeMillis();
 
-    int candidateCount = graph.getCalculatedCandidateCount();
-    Random random = new Random();
-    int nextInt = random.nextInt(candidateCount);
-    Pair<File, File> pair = graph.getCandidateStream().skip(nextInt).findAny().get();
+    Pair<File, File> pair = graph.getRandomCandidate(random);
 
     long end = System.currentTimeMillis();
     log.trace("time needed: {}", end - start);
@@ -11,9 +11,7 @@ class RandomChooser(pGraph: TransitiveDiGraph) : ACandidateChooser(pGraph) {
 	override fun doGetNextCandidates(): Pair<File, File> {
 		val start = System.currentTimeMillis();
 
-		val candidateCount = graph.getCalculatedCandidateCount();
-		val nextInt: Long = Random().nextInt(candidateCount).toLong();
-		val pair = graph.getCandidateStream().skip(nextInt).findAny().get();
+		val pair = graph.getRandomCandidate(Random());
 
 		val end = System.currentTimeMillis();
 		logger.trace("time needed: {}", end - start);
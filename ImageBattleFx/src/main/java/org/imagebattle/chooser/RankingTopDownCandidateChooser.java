@@ -1,9 +1,6 @@
 package org.imagebattle.chooser;
 
 import java.io.File;
-import java.util.Comparator;
-import java.util.List;
-import java.util.stream.Collectors;
 
 import org.imagebattle.TransitiveDiGraph;
 
@@ -25,19 +22,13 @@ public class RankingTopDownCandidateChooser extends ACandidateChooser {
   Pair<File, File> doGetNextCandidates() {
     Pair<File, File> result = null;
 
-    Comparator<File> winnerFirstComparator = Comparator.comparing(graph::outDegreeOf).reversed()
-        .thenComparing(Comparator.comparing(graph::inDegreeOf));
-    List<File> resultList = graph.vertexSet().stream() //
-        .sorted(winnerFirstComparator)//
-        .collect(Collectors.toList());
-
     boolean keepSearching = true;
     int i = 0;
     int step = 1;
     while (keepSearching) {
       try {
-        File file1 = resultList.get(i);
-        File file2 = resultList.get(i + step);
+        File file1 = graph.fileAtRank(i);
+        File file2 = graph.fileAtRank(i + step);
         if (!graph.containsEdge(file1, file2) && !graph.containsEdge(file2, file1)) {
           keepSearching = false;
           result = new Pair<File, File>(file1, file2);
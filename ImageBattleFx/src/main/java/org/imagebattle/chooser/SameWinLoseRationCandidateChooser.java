@@ -1,24 +1,23 @@
 package org.imagebattle.chooser;
 
 import java.io.File;
-import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Random;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.function.ToIntFunction;
 
 import javafx.util.Pair;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.imagebattle.CandidateCursor;
 import org.imagebattle.TransitiveDiGraph;
 
 public class SameWinLoseRationCandidateChooser extends ACandidateChooser {
   private static Logger log = LogManager.getLogger();
 
+  private final Random random = new Random();
+
   public SameWinLoseRationCandidateChooser(TransitiveDiGraph pGraph) {
     super(pGraph);
   }
@@ -27,27 +26,14 @@ public class SameWinLoseRationCandidateChooser extends ACandidateChooser {
   Pair<File, File> doGetNextCandidates() {
     log.trace("start");
 
-    Map<Integer, List<File>> differenceMap = graph.vertexSet()//
-        .stream()//
-        .collect(Collectors.groupingBy(graph::getWinLoseDifference));
-
-    log.trace("number of groups: {}", differenceMap.size());
-
-    Optional<List<File>> biggestGroup = differenceMap//
-        .values()//
-        .stream()//
-        .max(Comparator.comparing(List::size))//
-        .map(list -> {
-          Integer difference = graph.getWinLoseDifference(list.get(0));
-          log.trace("list size: {}  difference: {}", list.size(), difference);
-          return list;
-        });
+    int difference = graph.getMostCommonWinLoseDifference();
+    List<File> biggestGroupList = graph.filesWithWinLoseDifference(difference);
+    log.trace("list size: {}  difference: {}", biggestGroupList.size(), difference);
 
     /*
      * When group is big, candidate pair lits is veeery long => before building it try some times to
      * find any.
      */
-    List<File> biggestGroupList = biggestGroup.get();
     Pair<File, File> result = null;
 
     for (int i = 0; i < biggestGroupList.size(); i++) {
@@ -61,22 +47,8 @@ public class SameWinLoseRationCandidateChooser extends ACandidateChooser {
     }
 
     if (result == null) {
-      Map<Integer, List<Pair<File, File>>> countMap = biggestGroup//
-          .map(graph::getCandidateStream)//
-          .orElseThrow(IllegalStateException::new)//
-          .collect(Collectors.groupingBy(a -> 1));
-
-      log.debug("candidate map size: {}", countMap.size());
-
-      result = countMap//
-          .entrySet().stream()//
-          // .peek(System.err::println)//
-          .map(entry -> {
-            List<Pair<File, File>> list = entry.getValue();
-            return getRandomElement(list);
-          })//
-          .findAny()//
-          .orElseGet(this::getMinimalDistancePair);//
+      result = getRandomCandidate(graph.getCandidateCursor(biggestGroupList), cursor -> 0)//
+          .orElseGet(this::getMinimalDistancePair);
     }
 
     // TODO what when the biggest has only images that are already compared
@@ -89,23 +61,45 @@ public class SameWinLoseRationCandidateChooser extends ACandidateChooser {
 
   private Pair<File, File> getMinimalDistancePair() {
 
-    Function<Pair<File, File>, Integer> pairDifference = pair -> Math.abs(
-        graph.getWinLoseDifference(pair.getKey()) - graph.getWinLoseDifference(pair.getValue()));
+    ToIntFunction<CandidateCursor> pairDifference = cursor -> Math.abs(
+        graph.getWinLoseDifference(cursor.first()) - graph.getWinLoseDifference(cursor.second()));
+
+    return getRandomCandidate(graph.getCandidateCursor(), pairDifference).get();
 
-    return graph.getCandidateStream()//
-        .collect(Collectors.groupingBy(pairDifference)) //
-        .entrySet()//
-        .stream()//
-        .min(Comparator.comparing(Entry::getKey))//
-        .map(Entry::getValue)//
-        .map(this::getRandomElement)//
-        .get();
+  }
 
+  /**
+   * Reservoir sampling: walks the cursor once and keeps each pair with the smallest score with the
+   * same probability. Pairs are only created when they replace the current choice.
+   * 
+   * @param score
+   *          Applied to the current pair of the cursor.
+   * @return {@link Optional#empty()} when the cursor has no pairs.
+   */
+  private Optional<Pair<File, File>> getRandomCandidate(CandidateCursor cursor,
+      ToIntFunction<CandidateCursor> score) {
+    Pair<File, File> chosen = null;
+    int minScore = Integer.MAX_VALUE;
+    int minScoreCount = 0;
+    while (cursor.next()) {
+      int currentScore = score.applyAsInt(cursor);
+      if (currentScore < minScore) {
+        minScore = currentScore;
+        minScoreCount = 0;
+      }
+      if (currentScore == minScore) {
+        minScoreCount++;
+        if (random.nextInt(minScoreCount) == 0) {
+          chosen = new Pair<File, File>(cursor.first(), cursor.second());
+        }
+      }
+    }
+    log.trace("candidates with min score {}: {}", minScore, minScoreCount);
+    return Optional.ofNullable(chosen);
   }
 
   private <T> T getRandomElement(List<T> list) {
     int size = list.size();
-    Random random = new Random();
     int index = random.nextInt(size);
     log.trace(" {} / {}", index, size);
     return list.get(index);
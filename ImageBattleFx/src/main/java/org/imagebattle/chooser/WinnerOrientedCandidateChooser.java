@@ -2,14 +2,15 @@ package org.imagebattle.chooser;
 
 import java.io.File;
 import java.util.Comparator;
+import java.util.PriorityQueue;
 import java.util.Random;
 import java.util.function.Supplier;
-import java.util.function.ToIntFunction;
-import java.util.stream.Stream;
+import java.util.function.ToIntBiFunction;
 
 import javafx.util.Pair;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.imagebattle.CandidateCursor;
 import org.imagebattle.TransitiveDiGraph;
 
 public class WinnerOrientedCandidateChooser extends ACandidateChooser {
@@ -21,20 +22,12 @@ public class WinnerOrientedCandidateChooser extends ACandidateChooser {
 
   @Override
   Pair<File, File> doGetNextCandidates() {
-    int calculatedCandidateCount = graph.getCalculatedCandidateCount();
-
-    // J8 style, gather candidates
-    // TODO multiple choosing algorithms will need the candidates => move to graph?
-    Stream<Pair<File, File>> candidatesStream = graph.getCandidateStream();
-    // List<Pair<File, File>> candidates = candidatesStream.collect(Collectors.toList());
+    long calculatedCandidateCount = graph.getCalculatedCandidateCount();
 
     // TODO don't first sort nodes and then create pairs, instead sort pairs by product of lossCount
     // ?
     // => prefer comparing pairs where both have lost only a few times or one has not yet lost
-    ToIntFunction<Pair<File, File>> pairToLossCountProduct = pair -> {
-
-      File key = pair.getKey();
-      File value = pair.getValue();
+    ToIntBiFunction<File, File> pairToLossCountProduct = (key, value) -> {
 
       int loseCountKey = graph.inDegreeOf(key);
       int loseCountValue = graph.inDegreeOf(value);
@@ -101,17 +94,29 @@ public class WinnerOrientedCandidateChooser extends ACandidateChooser {
     // array
 
     // check range
-    expRandomIndex = Math.min(calculatedCandidateCount, expRandomIndex);
+    expRandomIndex = (int) Math.min(calculatedCandidateCount, expRandomIndex);
     expRandomIndex = Math.max(0, expRandomIndex);
 
-    Pair<File, File> pair = candidatesStream//
-        .sorted(Comparator.comparingInt(pairToLossCountProduct))// sorting is what takes the time =>
-                                                                // keep a
-        // sorted list and adapt it to the changes ?
-        // seems like the sorted stream takes as long as the completely sorted lits ?!
-        .skip(expRandomIndex)//
-        .findFirst()//
-        .get();
+    /*
+     * Sorting all candidates is what took the time. Only the expRandomIndex + 1 best pairs are
+     * needed, so keep them in a heap that has the worst of them on top.
+     */
+    int keepCount = expRandomIndex + 1;
+    Comparator<Pair<Pair<File, File>, Integer>> worstFirst = (a, b) -> Integer.compare(b.getValue(),
+        a.getValue());
+    PriorityQueue<Pair<Pair<File, File>, Integer>> bestPairs = new PriorityQueue<>(keepCount,
+        worstFirst);
+    CandidateCursor cursor = graph.getCandidateCursor();
+    while (cursor.next()) {
+      int score = pairToLossCountProduct.applyAsInt(cursor.first(), cursor.second());
+      if (bestPairs.size() < keepCount || score < bestPairs.peek().getValue()) {
+        if (bestPairs.size() == keepCount) {
+          bestPairs.poll();
+        }
+        bestPairs.add(new Pair<>(new Pair<>(cursor.first(), cursor.second()), score));
+      }
+    }
+    Pair<File, File> pair = bestPairs.peek().getKey();
     log.trace("exponentialRandomIndex: {}", expRandomIndex);
 
     // graph2.edgeSet().forEach(System.err::println);
@@ -5,6 +5,7 @@ import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.stream.Stream;
 
 import org.junit.rules.ExternalResource;
 
@@ -16,6 +17,8 @@ public class CentralStorageRule extends ExternalResource {
   private Path ignorePath = Paths.get(System.getProperty("user.home"), IGNORE_FILE_TEST);
   private Path graphPath = Paths.get(System.getProperty("user.home"), GRAPH_FILE_TEST);
   private Path sqlitePath = Paths.get(System.getProperty("user.home"), SQLITE_FILE_TEST);
+  private Path snapshotPath = Paths.get(System.getProperty("user.home"),
+      SQLITE_FILE_TEST + ".snapshots");
   private CentralStorage centralStorage;
 
   @Override
@@ -25,10 +28,19 @@ public class CentralStorageRule extends ExternalResource {
 
   @Override
   protected void after() {
+    centralStorage.close();
     try {
       Files.deleteIfExists(graphPath);
       Files.deleteIfExists(ignorePath);
       Files.deleteIfExists(sqlitePath);
+      if (Files.isDirectory(snapshotPath)) {
+        try (Stream<Path> snapshots = Files.list(snapshotPath)) {
+          for (Path snapshot : (Iterable<Path>) snapshots::iterator) {
+            Files.delete(snapshot);
+          }
+        }
+        Files.delete(snapshotPath);
+      }
     } catch (IOException e) {
       throw new UncheckedIOException("careful: some files were maybe not deleted", e);
     }
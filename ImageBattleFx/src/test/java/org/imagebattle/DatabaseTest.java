@@ -9,16 +9,25 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 
+import com.google.common.base.Strings;
 import com.google.common.io.Files;
+import javafx.util.Pair;
 import org.hamcrest.CoreMatchers;
 import org.hamcrest.collection.IsCollectionWithSize;
 import org.junit.After;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -44,6 +53,8 @@ public class DatabaseTest {
   @After
   public void tearDown() throws SQLException {
     connection.close();
+    database.close();
+    dataSource.close();
   }
 
   // TODO move this test to SqliteDatabaseTest ?
@@ -183,6 +194,86 @@ public class DatabaseTest {
     assertThat(ignored, not(hasItem(file)));
   }
 
+  @Test
+  public void queryIgnoredDirectChildren() throws IOException {
+    // prepare
+    File root = tf.getRoot();
+    File direct = tf.newFile("a.jpg");
+    File nested = new File(tf.newFolder("sub"), "b.jpg");
+    Files.write(new byte[] { 13 }, nested);
+    File sibling = new File(tf.newFolder("sub2"), "c.jpg");
+    Files.write(new byte[] { 15 }, sibling);
+    database.addToIgnore(direct);
+    database.addToIgnore(nested);
+    database.addToIgnore(sibling);
+
+    // act
+    Set<File> directIgnored = database.queryIgnored(root, MediaType.IMAGE, false);
+    Set<File> subIgnored = database.queryIgnored(nested.getParentFile(), MediaType.IMAGE, true);
+
+    // assert
+    assertThat(directIgnored, is(Collections.singleton(direct)));
+    assertThat(subIgnored, is(Collections.singleton(nested)));
+  }
+
+  @Test
+  public void queryRankingPages() throws IOException {
+    // prepare
+    File best = tf.newFile("a.jpg");
+    Files.write(new byte[] { 13 }, best);
+    File middle = tf.newFile("b.jpg");
+    Files.write(new byte[] { 15 }, middle);
+    File worst = tf.newFile("c.jpg");
+    Files.write(new byte[] { 17 }, worst);
+    File ignored = tf.newFile("d.jpg");
+    Files.write(new byte[] { 19 }, ignored);
+    database.addEdges(Arrays.asList(new Pair<>(best, middle), new Pair<>(best, worst),
+        new Pair<>(middle, worst)));
+    database.addToIgnore(ignored);
+
+    // act
+    List<ResultListEntry> first = database.queryRanking(tf.getRoot(), MediaType.IMAGE, false, 2, 0);
+    List<ResultListEntry> second = database.queryRanking(tf.getRoot(), MediaType.IMAGE, false, 2,
+        2);
+
+    // assert
+    assertThat(first.size(), is(2));
+    assertThat(first.get(0).file, is(best));
+    assertThat(first.get(0).place, is(1));
+    assertThat(first.get(0).wins, is(2));
+    assertThat(first.get(1).file, is(middle));
+    assertThat(first.get(1).loses, is(1));
+    assertThat(second.size(), is(1));
+    assertThat(second.get(0).file, is(worst));
+    assertThat(second.get(0).place, is(3));
+    assertThat(second.get(0).loses, is(2));
+  }
+
+  @Test
+  public void queryRankingKeepsDeletedFiles() throws IOException {
+    // prepare
+    File deleted = tf.newFile("a.jpg");
+    Files.write(new byte[] { 13 }, deleted);
+    File middle = tf.newFile("b.jpg");
+    Files.write(new byte[] { 15 }, middle);
+    File worst = tf.newFile("c.jpg");
+    Files.write(new byte[] { 17 }, worst);
+    database.addEdges(Arrays.asList(new Pair<>(deleted, middle), new Pair<>(deleted, worst),
+        new Pair<>(middle, worst)));
+    deleted.delete();
+
+    // act
+    List<ResultListEntry> first = database.queryRanking(tf.getRoot(), MediaType.IMAGE, false, 1, 0);
+
+    // assert
+    // existence is checked by the caller for the rows of the page only
+    assertThat(first.size(), is(1));
+    assertThat(first.get(0).file, is(deleted));
+    assertThat(first.get(0).place, is(1));
+    assertThat(first.get(0).wins, is(2));
+    assertThat(first.get(0).fixed, is(true));
+  }
+
   @Test
   public void queryEdges() throws IOException {
     // TODO what happens if winner and loser are the same file?
@@ -195,7 +286,352 @@ public class DatabaseTest {
     database.addEdge(winner, loser);
 
     TransitiveDiGraph edges = database.queryEdges();
-    assertThat(edges.getCurrentEdgeCount(), is(1));
+    assertThat(edges.getCurrentEdgeCount(), is(1L));
+  }
+
+  @Test
+  public void revisionIncreasesOnAddEdge() throws IOException {
+    // prepare
+    File winner = tf.newFile("a.mp3");
+    Files.write(new byte[] { 13 }, winner);
+    File loser = tf.newFile("b.mp3");
+    Files.write(new byte[] { 15 }, loser);
+    database.registerFiles(Arrays.asList(winner, loser));
+    long before = database.revision();
+
+    // act
+    database.addEdge(winner, loser);
+
+    // assert
+    assertThat(database.revision() > before, is(true));
+  }
+
+  @Test
+  public void revisionOfOtherFolderUnchanged() throws IOException {
+    // prepare
+    File folderA = tf.newFolder("a");
+    File folderB = tf.newFolder("b");
+    File other = new File(folderA, "a.mp3");
+    Files.write(new byte[] { 11 }, other);
+    File winner = new File(folderB, "b.mp3");
+    Files.write(new byte[] { 13 }, winner);
+    File loser = new File(folderB, "c.mp3");
+    Files.write(new byte[] { 15 }, loser);
+    database.registerFiles(Arrays.asList(other, winner, loser));
+    long beforeA = database.revision(folderA, false);
+    long beforeB = database.revision(folderB, false);
+    long beforeRoot = database.revision(tf.getRoot(), true);
+
+    // act
+    database.addEdge(winner, loser);
+
+    // assert
+    assertThat(database.revision(folderA, false), is(beforeA));
+    assertThat(database.revision(folderB, false) > beforeB, is(true));
+    assertThat(database.revision(tf.getRoot(), true) > beforeRoot, is(true));
+    assertThat(database.revision(tf.getRoot(), false), is(0L));
+  }
+
+  @Test
+  public void addEdgesInOneBatch() throws IOException {
+    // prepare
+    File a = tf.newFile("a.mp3");
+    Files.write(new byte[] { 13 }, a);
+    File b = tf.newFile("b.mp3");
+    Files.write(new byte[] { 15 }, b);
+    File c = tf.newFile("c.mp3");
+    Files.write(new byte[] { 17 }, c);
+    database.registerFiles(Arrays.asList(a, b, c));
+
+    // act
+    database.addEdges(Arrays.asList(new Pair<>(a, b), new Pair<>(b, c), new Pair<>(a, c)));
+
+    // assert
+    TransitiveDiGraph graph = database.queryEdges();
+    assertThat(graph.getCurrentEdgeCount(), is(3L));
+    assertThat(graph.containsEdge(a, c), is(true));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void addEdgesSameContent() throws IOException {
+    // prepare
+    File a = tf.newFile("a.mp3");
+    Files.write(new byte[] { 13 }, a);
+    File b = tf.newFile("b.mp3");
+    Files.write(new byte[] { 13 }, b);
+    database.registerFiles(Arrays.asList(a, b));
+
+    // act
+    database.addEdges(Arrays.asList(new Pair<>(a, b)));
+  }
+
+  @Test
+  public void addEdgeTwice() throws IOException {
+    // prepare
+    File winner = tf.newFile("a.mp3");
+    Files.write(new byte[] { 13 }, winner);
+    File loser = tf.newFile("b.mp3");
+    Files.write(new byte[] { 15 }, loser);
+    database.addEdge(winner, loser);
+
+    // act
+    database.addEdge(winner, loser);
+
+    // assert
+    assertThat(database.queryEdges().getCurrentEdgeCount(), is(1L));
+  }
+
+  @Test
+  public void registerFilesInParallel() throws IOException {
+    // prepare
+    List<File> files = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      File file = tf.newFile(i + ".mp3");
+      // two files per content
+      Files.write(new byte[] { (byte) (i / 2) }, file);
+      files.add(file);
+    }
+    database.registerFiles(files.subList(0, 10));
+    List<Integer> progress = new ArrayList<>();
+
+    // act
+    database.registerFiles(files, (registered, total) -> progress.add(registered));
+
+    // assert
+    assertThat(progress.get(0), is(10));
+    assertThat(progress.get(progress.size() - 1), is(50));
+    assertThat(database.queryMediaObjects().size(), is(25));
+    assertThat(database.lookupFile(files.get(48)), is(database.lookupFile(files.get(49))));
+  }
+
+  @Test
+  public void queryEdgesOncePerMediaObject() throws IOException {
+    // prepare
+    File winner = tf.newFile("a.mp3");
+    Files.write(new byte[] { 13 }, winner);
+    File copy = tf.newFile("c.mp3");
+    Files.write(new byte[] { 13 }, copy);
+    File loser = tf.newFile("b.mp3");
+    Files.write(new byte[] { 15 }, loser);
+    database.registerFiles(Arrays.asList(winner));
+    database.registerFiles(Arrays.asList(copy, loser));
+
+    // act
+    database.addEdge(winner, loser);
+
+    // assert
+    TransitiveDiGraph graph = database.queryEdges();
+    assertThat(graph.vertexSet().size(), is(2));
+    assertThat(graph.containsEdge(winner, loser), is(true));
+  }
+
+  @Test
+  public void registerFilesChangedContent() throws IOException {
+    // prepare
+    File file = tf.newFile("a.mp3");
+    Files.write(new byte[] { 13 }, file);
+    database.registerFiles(Arrays.asList(file));
+    Integer before = database.lookupFile(file).get();
+    Files.write(new byte[] { 13, 15 }, file);
+
+    // act
+    database.registerFiles(Arrays.asList(file));
+
+    // assert
+    assertThat(database.lookupFile(file).get(), not(before));
+    assertThat(database.queryMediaObjects().size(), is(2));
+  }
+
+  @Test
+  public void registerFilesSharedFingerprint() throws IOException {
+    // prepare
+    byte[] content = new byte[4 * FileContentHash.QUICK_CHUNK];
+    File unique = tf.newFile("a.mp3");
+    Files.write(new byte[] { 13 }, unique);
+    File first = tf.newFile("b.mp3");
+    Files.write(content, first);
+    // differs in a byte the fingerprint does not read
+    content[FileContentHash.QUICK_CHUNK + 1] = 1;
+    File second = tf.newFile("c.mp3");
+    Files.write(content, second);
+    File copy = tf.newFile("d.mp3");
+    Files.write(content, copy);
+
+    // act
+    database.registerFiles(Arrays.asList(unique, first, second, copy));
+
+    // assert
+    assertThat(database.lookupFile(first).get(), not(database.lookupFile(second).get()));
+    assertThat(database.lookupFile(second).get(), is(database.lookupFile(copy).get()));
+    List<String> hashes = new ArrayList<>();
+    database.queryMediaObjects().forEach(mediaObject -> hashes.add(mediaObject.hash()));
+    assertThat(hashes.size(), is(3));
+    // only the shared fingerprint needed the full hash
+    assertThat(hashes, hasItem((String) null));
+    assertThat(hashes, hasItem(new FileContentHash(first).hash()));
+  }
+
+  @Test
+  public void moveFile() throws IOException {
+    // prepare
+    File file = tf.newFile("a.mp3");
+    Files.write(new byte[] { 13 }, file);
+    database.registerFiles(Arrays.asList(file));
+    Integer id = database.lookupFile(file).get();
+    File moved = new File(tf.getRoot(), "b.mp3");
+    Files.move(file, moved);
+
+    // act
+    database.moveFile(file, moved);
+
+    // assert
+    assertThat(database.lookupFile(moved), is(Optional.of(id)));
+    assertThat(database.lookupFile(file), is(Optional.empty()));
+  }
+
+  @Test
+  public void registerRenamedFileWithoutHashing() throws IOException {
+    // prepare
+    File file = tf.newFile("a.mp3");
+    Files.write(new byte[] { 13 }, file);
+    // a hash the content can not have, hashing the renamed file would not find it
+    database.addMediaObject("not the content hash", MediaType.MUSIC);
+    int id = database.lookupMediaItemId("not the content hash").get();
+    database.addFile(id, file);
+    File loser = tf.newFile("c.mp3");
+    Files.write(new byte[] { 15 }, loser);
+    database.addEdge(file, loser);
+    File renamed = new File(tf.getRoot(), "b.mp3");
+    Files.move(file, renamed);
+    // file keys are not available everywhere, for example on NTFS
+    Assume.assumeNotNull(FileSignature.of(renamed).fileKey);
+
+    // act
+    database.registerFiles(Arrays.asList(renamed));
+
+    // assert
+    assertThat(database.lookupFile(renamed), is(Optional.of(id)));
+    assertThat(database.lookupFile(file), is(Optional.empty()));
+    assertThat(database.queryMediaObjects().size(), is(2));
+    TransitiveDiGraph graph = database.queryEdges(tf.getRoot(), File::exists, false);
+    assertThat(graph.containsEdge(renamed, loser), is(true));
+  }
+
+  @Test
+  public void migrateMergesDuplicates() throws IOException, SQLException {
+    // prepare
+    SqliteDatabase oldDataSource = new SqliteDatabase(tf.newFile());
+    File a = new File(tf.getRoot(), "a.mp3");
+    File b = new File(tf.getRoot(), "b.mp3");
+    File c = new File(tf.getRoot(), "c.mp3");
+    try (Connection oldConnection = oldDataSource.getConnection();
+        Statement statement = oldConnection.createStatement()) {
+      statement.execute("create table media_objects(id INTEGER PRIMARY KEY, hash TEXT,"
+          + " media_type TEXT)");
+      statement.execute("create table files(media_object INTEGER, absolute_path TEXT)");
+      statement.execute("create table ignored(media_object INTEGER)");
+      statement.execute("create table edges(winner INTEGER, loser INTEGER)");
+      // full width hashes, short ones are hashed again before anything is merged
+      String hashA = Strings.repeat("a", 64);
+      String hashB = Strings.repeat("b", 64);
+      statement.execute("insert into media_objects values (1, '" + hashA + "', 'MUSIC'),"
+          + " (2, '" + hashB + "', 'MUSIC'), (3, '" + hashA + "', 'MUSIC')");
+      statement.execute("insert into files values (1, '" + a + "'), (2, '" + b + "'), (3, '" + c
+          + "'), (2, '" + b + "')");
+      statement.execute("insert into edges values (1, 2), (1, 2), (3, 2), (1, 3)");
+    }
+
+    // act
+    Database migrated = new Database(oldDataSource);
+
+    // assert
+    assertThat(migrated.queryMediaObjects().size(), is(2));
+    assertThat(migrated.lookupFile(c), is(Optional.of(1)));
+    try (Connection oldConnection = oldDataSource.getConnection();
+        Statement statement = oldConnection.createStatement();
+        ResultSet edges = statement.executeQuery("select winner, loser from edges")) {
+      assertThat(SchemaMigrations.version(oldConnection), is(SchemaMigrations.latestVersion()));
+      // the edges of c moved to a because they have the same hash, a against itself is dropped
+      assertThat(edges.next(), is(true));
+      assertThat(edges.getInt(1), is(1));
+      assertThat(edges.getInt(2), is(2));
+      assertThat(edges.next(), is(false));
+    }
+    migrated.close();
+  }
+
+  @Test
+  public void migrateRehashesShortHashes() throws IOException, SQLException {
+    // prepare
+    SqliteDatabase oldDataSource = new SqliteDatabase(tf.newFile());
+    File existing = tf.newFile("a.mp3");
+    Files.write(new byte[] { 1, 2, 3, 4 }, existing);
+    File missing = new File(tf.getRoot(), "b.mp3");
+    try (Connection oldConnection = oldDataSource.getConnection();
+        Statement statement = oldConnection.createStatement()) {
+      statement.execute("create table media_objects(id INTEGER PRIMARY KEY, hash TEXT,"
+          + " media_type TEXT)");
+      statement.execute("create table files(media_object INTEGER, absolute_path TEXT)");
+      statement.execute("create table ignored(media_object INTEGER)");
+      statement.execute("create table edges(winner INTEGER, loser INTEGER)");
+      // the leading zero of the byte 02 was dropped
+      statement.execute("insert into media_objects values"
+          + " (1, '9f64a747e1b97f131fabb6b447296c9b6f21e79fb3c5356e6c77e89b6a806a', 'MUSIC'),"
+          + " (2, 'b', 'MUSIC')");
+      statement.execute("insert into files values (1, '" + existing + "'), (2, '" + missing
+          + "')");
+    }
+
+    // act
+    Database migrated = new Database(oldDataSource);
+
+    // assert
+    List<String> hashes = new ArrayList<>();
+    migrated.queryMediaObjects().forEach(mediaObject -> hashes.add(mediaObject.hash()));
+    assertThat(hashes, hasItem(new FileContentHash(existing).hash()));
+    assertThat(hashes, hasItem("b"));
+    migrated.close();
+  }
+
+  @Test
+  public void migrateKeepsCollidingShortHashesApart() throws IOException, SQLException {
+    // prepare
+    SqliteDatabase oldDataSource = new SqliteDatabase(tf.newFile());
+    File a = tf.newFile("a.mp3");
+    Files.write(new byte[] { 1 }, a);
+    File b = tf.newFile("b.mp3");
+    Files.write(new byte[] { 2 }, b);
+    File c = tf.newFile("c.mp3");
+    Files.write(new byte[] { 3 }, c);
+    try (Connection oldConnection = oldDataSource.getConnection();
+        Statement statement = oldConnection.createStatement()) {
+      statement.execute("create table media_objects(id INTEGER PRIMARY KEY, hash TEXT,"
+          + " media_type TEXT)");
+      statement.execute("create table files(media_object INTEGER, absolute_path TEXT)");
+      statement.execute("create table ignored(media_object INTEGER)");
+      statement.execute("create table edges(winner INTEGER, loser INTEGER)");
+      // three different contents whose short hashes collided
+      statement.execute("insert into media_objects values (1, 'abc', 'MUSIC'),"
+          + " (2, 'abc', 'MUSIC')");
+      statement.execute("insert into files values (1, '" + a + "'), (2, '" + b + "'), (1, '" + c
+          + "')");
+      statement.execute("insert into edges values (1, 2)");
+    }
+
+    // act
+    Database migrated = new Database(oldDataSource);
+
+    // assert
+    Set<Integer> ids = new HashSet<>(Arrays.asList(migrated.lookupFile(a).get(),
+        migrated.lookupFile(b).get(), migrated.lookupFile(c).get()));
+    assertThat(ids.size(), is(3));
+    List<String> hashes = new ArrayList<>();
+    migrated.queryMediaObjects().forEach(mediaObject -> hashes.add(mediaObject.hash()));
+    assertThat(hashes, hasItem(new FileContentHash(c).hash()));
+    TransitiveDiGraph graph = migrated.queryEdges();
+    assertThat(graph.containsEdge(a, b), is(true));
+    assertThat(graph.getCurrentEdgeCount(), is(1L));
+    migrated.close();
   }
 
   // TODO graph duplicate test
@@ -214,10 +650,31 @@ public class DatabaseTest {
     database.addEdge(winner, loser);
 
     TransitiveDiGraph edges = database.queryEdges(tf.getRoot(), MediaType.MUSIC.predicate, false);
-    assertThat(edges.getCurrentEdgeCount(), is(1));
+    assertThat(edges.getCurrentEdgeCount(), is(1L));
     Set<File> vertexSet = edges.vertexSet();
     assertThat(vertexSet, CoreMatchers.anyOf(hasItem(winner), hasItem(winner2)));
     assertThat(vertexSet.size(), is(2));
   }
 
+  @Test
+  public void queryEdgesSkipsDeletedDuplicate() throws IOException {
+    // prepare
+    File deleted = tf.newFile("a.mp3");
+    Files.write(new byte[] { 13 }, deleted);
+    File copy = tf.newFile("c.mp3");
+    Files.write(new byte[] { 13 }, copy);
+    File loser = tf.newFile("b.mp3");
+    Files.write(new byte[] { 15 }, loser);
+    database.registerFiles(Arrays.asList(deleted, copy, loser));
+    database.addEdge(deleted, loser);
+    deleted.delete();
+
+    // act
+    TransitiveDiGraph edges = database.queryEdges(tf.getRoot(), File::exists, false);
+
+    // assert
+    assertThat(edges.vertexSet(), hasItem(copy));
+    assertThat(edges.containsEdge(copy, loser), is(true));
+  }
+
 }
\ No newline at end of file
@@ -35,7 +35,7 @@ public class FileContentHashTest {
     String hash = fileContentHash.hash();
 
     int length = hash.length();
-    assertThat(length, is(62));
+    assertThat(length, is(64));
 
   }
 
@@ -47,10 +47,32 @@ public class FileContentHashTest {
 
     String hash = fileContentHash.hash();
 
-    assertThat(hash, is("9f64a747e1b97f131fabb6b447296c9b6f21e79fb3c5356e6c77e89b6a806a"));
+    assertThat(hash, is("9f64a747e1b97f131fabb6b447296c9b6f0201e79fb3c5356e6c77e89b6a806a"));
 
   }
 
+  @Test
+  public void quickHashReadsStartMiddleAndEnd() throws IOException {
+    // prepare
+    byte[] content = new byte[4 * FileContentHash.QUICK_CHUNK];
+    Files.write(content, file);
+    String before = fileContentHash.quickHash();
+
+    // act
+    content[content.length / 2] = 1;
+    Files.write(content, file);
+    String middleChanged = fileContentHash.quickHash();
+    content[content.length / 2] = 0;
+    content[FileContentHash.QUICK_CHUNK + 1] = 1;
+    Files.write(content, file);
+    String unreadChanged = fileContentHash.quickHash();
+
+    // assert
+    assertThat(before.length(), is(64));
+    assertThat(middleChanged, is(not(before)));
+    assertThat(unreadChanged, is(before));
+  }
+
   @Test
   public void differentContentDifferentHash() throws IOException {
 
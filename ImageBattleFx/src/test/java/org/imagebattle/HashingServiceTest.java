@@ -0,0 +1,97 @@
+package org.imagebattle;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HashingServiceTest {
+
+  @Rule
+  public TemporaryFolder tf = new TemporaryFolder();
+
+  private final AtomicInteger askedDevices = new AtomicInteger();
+
+  private final HashingService hashingService = new HashingService(4, store -> {
+    askedDevices.incrementAndGet();
+    return 1;
+  });
+
+  @After
+  public void tearDown() {
+    hashingService.close();
+  }
+
+  @Test
+  public void hashManyFiles() throws IOException {
+    // prepare
+    List<File> files = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      File file = tf.newFile();
+      Files.write(new byte[] { (byte) i, 2, 3 }, file);
+      files.add(file);
+    }
+
+    // act
+    List<CompletableFuture<String>> hashes = new ArrayList<>();
+    files.forEach(file -> hashes.add(hashingService.hash(file)));
+
+    // assert
+    for (int i = 0; i < files.size(); i++) {
+      assertThat(hashes.get(i).join(), is(new FileContentHash(files.get(i)).hash()));
+    }
+    // all files are on the same device
+    assertThat(askedDevices.get(), is(1));
+  }
+
+  @Test
+  public void missingFileCompletesExceptionally() {
+    // prepare
+    File missing = new File(tf.getRoot(), "missing.jpg");
+
+    // act
+    CompletableFuture<String> hash = hashingService.hash(missing);
+
+    // assert
+    try {
+      hash.join();
+      fail("a missing file has no hash");
+    } catch (CompletionException e) {
+      assertThat(e.getCause(), instanceOf(UncheckedIOException.class));
+    }
+  }
+
+  @Test
+  public void missingDirectoryCompletesExceptionally() {
+    // prepare
+    File missing = new File(new File(tf.getRoot(), "missing"), "missing.jpg");
+
+    // act
+    CompletableFuture<String> hash = hashingService.quickHash(missing);
+
+    // assert
+    try {
+      hash.join();
+      fail("a file in a missing directory has no hash");
+    } catch (CompletionException e) {
+      assertThat(e.getCause(), instanceOf(UncheckedIOException.class));
+    }
+    assertThat(askedDevices.get(), is(0));
+  }
+
+}
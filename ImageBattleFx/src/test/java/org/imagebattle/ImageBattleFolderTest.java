@@ -8,6 +8,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 
 import com.google.common.io.Files;
@@ -105,6 +106,131 @@ public class ImageBattleFolderTest {
 
   }
 
+  @Test
+  public void reopenFromSnapshot() throws IOException {
+    // prepare
+    File root = temporaryFolder.getRoot();
+    File fileWinner = temporaryFolder.newFile("win.jpg");
+    File fileLoser = temporaryFolder.newFile("lose.jpg");
+    Files.write("win".getBytes(), fileWinner);
+    Files.write("los".getBytes(), fileLoser);
+    CentralStorage centralStorage = centralStorageRule.centralStorage();
+    ImageBattleFolder folder = new ImageBattleFolder(centralStorage, root, MediaType.IMAGE, false,
+        "name");
+    folder.makeDecision(fileWinner, fileLoser);
+
+    // act
+    folder.saveSnapshot();
+    ImageBattleFolder reopened = new ImageBattleFolder(centralStorage, root, MediaType.IMAGE,
+        false, "name");
+
+    // assert
+    List<ResultListEntry> resultList = reopened.getResultList();
+    assertThat(resultList.get(0).file, is(fileWinner));
+    assertThat(resultList.get(0).wins, is(1));
+    assertThat(resultList.size(), is(2));
+  }
+
+  @Test
+  public void reopenIgnoresOutdatedSnapshot() throws IOException {
+    // prepare
+    File root = temporaryFolder.getRoot();
+    File fileWinner = temporaryFolder.newFile("win.jpg");
+    File fileLoser = temporaryFolder.newFile("lose.jpg");
+    Files.write("win".getBytes(), fileWinner);
+    Files.write("los".getBytes(), fileLoser);
+    CentralStorage centralStorage = centralStorageRule.centralStorage();
+    ImageBattleFolder folder = new ImageBattleFolder(centralStorage, root, MediaType.IMAGE, false,
+        "name");
+    folder.saveSnapshot();
+
+    // act
+    List<Pair<File, File>> newEdges = new ArrayList<>();
+    newEdges.add(new Pair<File, File>(fileWinner, fileLoser));
+    centralStorage.addEdges(newEdges);
+    ImageBattleFolder reopened = new ImageBattleFolder(centralStorage, root, MediaType.IMAGE,
+        false, "name");
+
+    // assert
+    assertThat(reopened.getResultList().get(0).file, is(fileWinner));
+    assertThat(reopened.getResultList().get(0).wins, is(1));
+  }
+
+  @Test
+  public void undo() throws IOException {
+    // prepare
+    File root = temporaryFolder.getRoot();
+    File fileA = temporaryFolder.newFile("a.jpg");
+    File fileB = temporaryFolder.newFile("b.jpg");
+    File fileC = temporaryFolder.newFile("c.jpg");
+    Files.write("a".getBytes(), fileA);
+    Files.write("b".getBytes(), fileB);
+    Files.write("c".getBytes(), fileC);
+    CentralStorage centralStorage = centralStorageRule.centralStorage();
+    ImageBattleFolder folder = new ImageBattleFolder(centralStorage, root, MediaType.IMAGE, false,
+        "name");
+    folder.makeDecision(fileA, fileB);
+    folder.makeDecision(fileB, fileC);
+
+    // act
+    List<Pair<File, File>> undone = folder.undo(1);
+
+    // assert
+    assertThat(undone.get(0), is(new Pair<>(fileB, fileC)));
+    assertThat(centralStorage.readGraph().getCurrentEdgeCount(), is(1L));
+    List<ResultListEntry> resultList = folder.getResultList();
+    assertThat(resultList.get(0).file, is(fileA));
+    assertThat(resultList.get(0).wins, is(1));
+  }
+
+  @Test
+  public void undoAfterDeletedFile() throws IOException {
+    // prepare
+    File root = temporaryFolder.getRoot();
+    File fileA = temporaryFolder.newFile("a.jpg");
+    File fileB = temporaryFolder.newFile("b.jpg");
+    File fileC = temporaryFolder.newFile("c.jpg");
+    Files.write("a".getBytes(), fileA);
+    Files.write("b".getBytes(), fileB);
+    Files.write("c".getBytes(), fileC);
+    CentralStorage centralStorage = centralStorageRule.centralStorage();
+    ImageBattleFolder folder = new ImageBattleFolder(centralStorage, root, MediaType.IMAGE, false,
+        "name");
+    folder.makeDecision(fileA, fileB);
+    fileA.delete();
+    fileB.delete();
+
+    // act
+    Optional<Pair<File, File>> next = folder.getNextToCompare();
+    List<Pair<File, File>> undone = folder.undo(1);
+
+    // assert
+    assertThat(next.isPresent(), is(false));
+    assertThat(undone.isEmpty(), is(true));
+  }
+
+  @Test
+  public void redo() throws IOException {
+    // prepare
+    File root = temporaryFolder.getRoot();
+    File fileA = temporaryFolder.newFile("a.jpg");
+    File fileB = temporaryFolder.newFile("b.jpg");
+    Files.write("a".getBytes(), fileA);
+    Files.write("b".getBytes(), fileB);
+    CentralStorage centralStorage = centralStorageRule.centralStorage();
+    ImageBattleFolder folder = new ImageBattleFolder(centralStorage, root, MediaType.IMAGE, false,
+        "name");
+    folder.makeDecision(fileA, fileB);
+    folder.undo(1);
+
+    // act
+    folder.redo(1);
+
+    // assert
+    assertThat(centralStorage.readGraph().getCurrentEdgeCount(), is(1L));
+    assertThat(folder.getResultList().get(0).file, is(fileA));
+  }
+
   @Test
   public void fixInconsistenceByDecision() throws IOException {
     // prepare
@@ -0,0 +1,101 @@
+package org.imagebattle;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SqliteDatabaseTest {
+  @Rule
+  public TemporaryFolder tf = new TemporaryFolder();
+
+  private SqliteDatabase dataSource;
+
+  @Before
+  public void setUp() throws IOException {
+    dataSource = new SqliteDatabase(tf.newFile(), SqlitePragmas.DEFAULT.withPoolSize(1));
+  }
+
+  @After
+  public void tearDown() {
+    dataSource.close();
+  }
+
+  @Test
+  public void pragmasApplied() throws SQLException {
+    // act
+    String journalMode;
+    try (Connection connection = dataSource.getConnection();
+        Statement statement = connection.createStatement();
+        ResultSet resultSet = statement.executeQuery("PRAGMA journal_mode")) {
+      resultSet.next();
+      journalMode = resultSet.getString(1);
+    }
+
+    // assert
+    assertThat(journalMode.toUpperCase(), is("WAL"));
+  }
+
+  @Test
+  public void readWhileWriting() throws SQLException {
+    // prepare
+    try (Connection connection = dataSource.getConnection();
+        Statement statement = connection.createStatement()) {
+      statement.execute("create table t (x INTEGER)");
+      statement.execute("insert into t values (1)");
+    }
+
+    try (Connection writer = dataSource.getConnection();
+        Connection reader = dataSource.getConnection()) {
+      writer.setAutoCommit(false);
+      try (Statement statement = writer.createStatement()) {
+        statement.execute("insert into t values (2)");
+      }
+
+      // act
+      int count;
+      try (Statement statement = reader.createStatement();
+          ResultSet resultSet = statement.executeQuery("select count(*) from t")) {
+        resultSet.next();
+        count = resultSet.getInt(1);
+      }
+
+      // assert
+      assertThat(count, is(1));
+      writer.commit();
+    }
+  }
+
+  @Test
+  public void connectionReused() throws SQLException {
+    // prepare
+    try (Connection connection = dataSource.getConnection();
+        Statement statement = connection.createStatement()) {
+      statement.execute("create temp table marker (x INTEGER)");
+    }
+
+    // act
+    boolean found;
+    try (Connection connection = dataSource.getConnection();
+        Statement statement = connection.createStatement();
+        ResultSet resultSet = statement
+            .executeQuery("select count(*) from sqlite_temp_master where name = 'marker'")) {
+      resultSet.next();
+      found = resultSet.getInt(1) == 1;
+    }
+
+    // assert
+    assertThat(found, is(true));
+  }
+
+}
@@ -1,9 +1,11 @@
 package org.imagebattle;
 
 import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsCollectionContaining.hasItem;
 import static org.junit.Assert.assertThat;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -52,10 +54,10 @@ public class TransitiveDiGraphTest {
     graph.addEdge(fileA, fileB);
 
     // act
-    int calculatedCandidateCount = graph.getCalculatedCandidateCount();
+    long calculatedCandidateCount = graph.getCalculatedCandidateCount();
 
     // assert
-    assertThat(calculatedCandidateCount, is(2));
+    assertThat(calculatedCandidateCount, is(2L));
 
   }
 
@@ -93,6 +95,166 @@ public class TransitiveDiGraphTest {
 
   }
 
+  @Test
+  public void getCandidateCursor() {
+    // prepare
+    TransitiveDiGraph graph = new TransitiveDiGraph();
+    File fileA = new File("a");
+    File fileB = new File("b");
+    File fileC = new File("c");
+    graph.addVertex(fileA);
+    graph.addVertex(fileB);
+    graph.addVertex(fileC);
+    graph.addEdge(fileA, fileB);
+
+    // act
+    CandidateCursor cursor = graph.getCandidateCursor();
+    int count = 0;
+    boolean containsC = true;
+    while (cursor.next()) {
+      count++;
+      containsC &= fileC.equals(cursor.first()) || fileC.equals(cursor.second());
+    }
+
+    // assert
+    assertThat("size", count, is(2));
+    assertThat("C in every pair", containsC, is(true));
+    Pair<File, File> second = graph.getCandidate(1);
+    assertThat("random access", second.getKey().equals(fileC) || second.getValue().equals(fileC),
+        is(true));
+  }
+
+  @Test
+  public void addEdgesBulkClosesMissingEdges() {
+    // prepare
+    TransitiveDiGraph graph = new TransitiveDiGraph();
+    File fileA = new File("a");
+    File fileB = new File("b");
+    File fileC = new File("c");
+    List<File> vertices = Arrays.asList(fileA, fileB, fileC);
+
+    // act
+    graph.addEdgesBulk(vertices, new int[] { 0, 1, 1, 2 });
+
+    // assert
+    assertThat(graph.vertexSet().size(), is(3));
+    assertThat(graph.getCurrentEdgeCount(), is(3L));
+    assertThat(graph.containsEdge(fileA, fileC), is(true));
+    assertThat(graph.outDegreeOf(fileA), is(2));
+    assertThat(graph.finishedProperty().get(), is(true));
+  }
+
+  @Test
+  public void addEdgesBulkUpdatesRanking() {
+    // prepare
+    TransitiveDiGraph graph = new TransitiveDiGraph();
+    File fileA = new File("a");
+    File fileB = new File("b");
+    File fileC = new File("c");
+    graph.addVertex(fileB);
+    graph.addVertex(fileC);
+    graph.addEdge(fileC, fileB);
+
+    // act
+    graph.addEdgesBulk(Arrays.asList(fileA, fileB, fileC), new int[] { 0, 1, 0, 2, 2, 1 });
+
+    // assert
+    assertThat(graph.getRankingList(), is(Arrays.asList(fileA, fileC, fileB)));
+    assertThat(graph.rankOf(fileB), is(2));
+    assertThat(graph.getWinLoseDifference(fileA), is(2));
+    assertThat(graph.getCurrentEdgeCount(), is(3L));
+  }
+
+  @Test
+  public void rankOf() {
+    // prepare
+    TransitiveDiGraph graph = new TransitiveDiGraph();
+    File fileA = new File("a");
+    File fileB = new File("b");
+    File fileC = new File("c");
+    graph.addVertex(fileA);
+    graph.addVertex(fileB);
+    graph.addVertex(fileC);
+
+    // act
+    graph.addEdge(fileC, fileA);
+    graph.addEdge(fileA, fileB);
+
+    // assert
+    assertThat(graph.rankOf(fileC), is(0));
+    assertThat(graph.rankOf(fileA), is(1));
+    assertThat(graph.rankOf(fileB), is(2));
+    assertThat(graph.fileAtRank(1), is(fileA));
+    assertThat(graph.getRankingList(), is(Arrays.asList(fileC, fileA, fileB)));
+    assertThat(graph.filesWithWinLoseDifference(-2), is(Arrays.asList(fileB)));
+  }
+
+  @Test
+  public void addEdgesTransitiveRejectsCycle() {
+    // prepare
+    TransitiveDiGraph graph = new TransitiveDiGraph();
+    File fileA = new File("a");
+    File fileB = new File("b");
+    File fileC = new File("c");
+    graph.addVertex(fileA);
+    graph.addVertex(fileB);
+    graph.addVertex(fileC);
+    graph.addEdge(fileA, fileB);
+    graph.addEdge(fileB, fileC);
+
+    // act
+    try {
+      graph.addEdgesTransitive(fileC, fileA, ConflictPolicy.REJECT);
+      Assert.fail("conflict was not detected");
+    } catch (EdgeConflictException e) {
+      // assert
+      assertThat(e.path(), is(Arrays.asList(fileA, fileB, fileC)));
+    }
+    assertThat(graph.containsEdge(fileA, fileC), is(true));
+  }
+
+  @Test
+  public void addEdgesTransitiveKeepNewest() {
+    // prepare
+    TransitiveDiGraph graph = new TransitiveDiGraph();
+    File fileA = new File("a");
+    File fileB = new File("b");
+    graph.addVertex(fileA);
+    graph.addVertex(fileB);
+    graph.addEdge(fileA, fileB);
+
+    // act
+    GraphChange change = graph.addEdgesTransitive(fileB, fileA, ConflictPolicy.KEEP_NEWEST);
+
+    // assert
+    assertThat(change.removedEdges(), is(Arrays.asList(new Pair<>(fileA, fileB))));
+    assertThat(change.addedEdges(), is(Arrays.asList(new Pair<>(fileB, fileA))));
+    assertThat(graph.containsEdge(fileA, fileB), is(false));
+    assertThat(graph.findContradictions().isEmpty(), is(true));
+  }
+
+  @Test
+  public void revert() {
+    // prepare
+    TransitiveDiGraph graph = new TransitiveDiGraph();
+    File fileA = new File("a");
+    File fileB = new File("b");
+    File fileC = new File("c");
+    graph.addVertex(fileA);
+    graph.addVertex(fileB);
+    graph.addVertex(fileC);
+    graph.addEdge(fileA, fileB);
+    GraphChange change = graph.addEdgesTransitive(fileB, fileC, ConflictPolicy.REJECT);
+
+    // act
+    graph.revert(change);
+
+    // assert
+    assertThat(graph.getCurrentEdgeCount(), is(1L));
+    assertThat(graph.containsEdge(fileA, fileB), is(true));
+    assertThat(graph.getCalculatedCandidateCount(), is(2L));
+  }
+
   @Test
   public void unfinished() {
     // prepare
@@ -155,9 +317,105 @@ public class TransitiveDiGraphTest {
     assertThat(finishedAfterRemove, is(true));
   }
 
+  @Test
+  public void removeVertexRemovesEdges() {
+    // prepare
+    TransitiveDiGraph graph = new TransitiveDiGraph();
+    File fileA = new File("a");
+    File fileB = new File("b");
+    File fileC = new File("c");
+    graph.addVertex(fileA);
+    graph.addVertex(fileB);
+    graph.addVertex(fileC);
+    graph.addEdge(fileA, fileB);
+    graph.addEdge(fileB, fileC);
+
+    // act
+    graph.removeVertex(fileB);
+    graph.addVertex(fileB);
+
+    // assert
+    assertThat("a -> b", graph.containsAnyEdge(fileA, fileB), is(false));
+    assertThat("b -> c", graph.containsAnyEdge(fileB, fileC), is(false));
+    assertThat("a -> c", graph.containsEdge(fileA, fileC), is(true));
+    assertThat("a wins", graph.outDegreeOf(fileA), is(1));
+    assertThat("b wins", graph.outDegreeOf(fileB), is(0));
+    assertThat("c losses", graph.inDegreeOf(fileC), is(1));
+  }
+
+  @Test
+  public void simplifiedEdges() {
+    // prepare
+    TransitiveDiGraph graph = new TransitiveDiGraph();
+    File fileA = new File("a");
+    File fileB = new File("b");
+    File fileC = new File("c");
+    File fileD = new File("d");
+    graph.addVertex(fileA);
+    graph.addVertex(fileB);
+    graph.addVertex(fileC);
+    graph.addVertex(fileD);
+    graph.addEdge(fileA, fileB);
+    graph.addEdge(fileA, fileC);
+    graph.addEdge(fileB, fileD);
+    graph.addEdge(fileC, fileD);
+
+    // act
+    List<Pair<File, File>> simplifiedEdges = graph.simplifiedEdges();
+
+    // assert
+    assertThat("size", simplifiedEdges.size(), is(4));
+    assertThat("a -> d is transitive", simplifiedEdges.contains(new Pair<>(fileA, fileD)),
+        is(false));
+    assertThat("b -> d", simplifiedEdges.contains(new Pair<>(fileB, fileD)), is(true));
+  }
+
   @Test
   public void addEdgesTransitive() {
+    // prepare
     TransitiveDiGraph graph = new TransitiveDiGraph();
+    File fileA = new File("a");
+    File fileB = new File("b");
+    File fileC = new File("c");
+    File fileD = new File("d");
+    graph.addVertex(fileA);
+    graph.addVertex(fileB);
+    graph.addVertex(fileC);
+    graph.addVertex(fileD);
+    graph.addEdge(fileA, fileB);
+    graph.addEdge(fileC, fileD);
 
+    // act
+    List<Pair<File, File>> newEdges = graph.addEdgesTransitive(fileB, fileC);
+
+    // assert
+    assertThat("new edge count", newEdges.size(), is(4));
+    assertThat("first source", newEdges.get(0).getKey(), is(fileB));
+    assertThat("first target", newEdges.get(0).getValue(), is(fileC));
+    assertThat("a -> d", graph.containsEdge(fileA, fileD), is(true));
+    assertThat("already compared", graph.addEdgesTransitive(fileA, fileD).isEmpty(), is(true));
+  }
+
+  @Test
+  public void edgesFromRows() {
+    // prepare
+    TransitiveDiGraph graph = new TransitiveDiGraph();
+    File fileA = new File("a");
+    File fileB = new File("b");
+    File fileC = new File("c");
+    graph.addVertex(fileA);
+    graph.addVertex(fileB);
+    graph.addVertex(fileC);
+
+    // act
+    graph.addEdge(fileA, fileB);
+    graph.addEdge(fileB, fileC);
+
+    // assert
+    assertThat(graph.winnersOf(fileC), is(Arrays.asList(fileA, fileB)));
+    assertThat(graph.losersOf(fileA), is(Arrays.asList(fileB, fileC)));
+    assertThat(graph.winnersOf(fileA).isEmpty(), is(true));
+    assertThat(graph.getEdgePairs().size(), is(3));
+    assertThat(graph.getEdgePairs(), hasItem(new Pair<>(fileC, fileA)));
   }
 }
@@ -0,0 +1,64 @@
+package org.imagebattle;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class WriteBehindQueueTest {
+
+  @Test
+  public void groupCommit() {
+    // prepare
+    AtomicInteger transactions = new AtomicInteger();
+    List<Integer> written = Collections.synchronizedList(new ArrayList<>());
+    WriteBehindQueue queue = new WriteBehindQueue("test", 10_000, 100, writes -> {
+      transactions.incrementAndGet();
+      writes.run();
+    });
+
+    // act
+    for (int i = 0; i < 50; i++) {
+      int value = i;
+      queue.submit(() -> written.add(value));
+    }
+    queue.flush();
+
+    // assert
+    assertThat(written.size(), is(50));
+    assertThat(written.get(49), is(49));
+    assertThat(transactions.get(), is(1));
+    queue.close();
+  }
+
+  @Test
+  public void failingWriteKeepsOthers() {
+    // prepare
+    List<Integer> pending = new ArrayList<>();
+    List<Integer> written = Collections.synchronizedList(new ArrayList<>());
+    WriteBehindQueue queue = new WriteBehindQueue("test", 10_000, 100, writes -> {
+      // like a rollback: nothing of a failed transaction is kept
+      pending.clear();
+      writes.run();
+      written.addAll(pending);
+    });
+
+    // act
+    queue.submit(() -> pending.add(1));
+    queue.submit(() -> {
+      throw new IllegalStateException("broken write");
+    });
+    queue.submit(() -> pending.add(3));
+    queue.close();
+
+    // assert
+    assertThat(written, is(Arrays.asList(1, 3)));
+  }
+
+}